@@ -0,0 +1,76 @@
+package org.elasticsearch.benchmark.search.indices2416;
+
+import org.elasticsearch.action.support.IgnoreIndices;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.Indices2416IndicesMatcher;
+import org.elasticsearch.index.query.Indices2416ResolutionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the current index gets checked against an <tt>indices</tt> list, with and without the
+ * resolution cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Indices2416MatchBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int clusterIndices;
+
+    @Param({"0.0", "0.5", "1.0"})
+    public double wildcardDensity;
+
+    private MetaData metaData;
+
+    private Indices2416ResolutionCache resolutionCache;
+
+    private String[] indices;
+
+    @Setup
+    public void setUp() {
+        metaData = StaticClusterService.metaData(clusterIndices, Indices2416ParseBenchmark.INDEX);
+        resolutionCache = new Indices2416ResolutionCache(ImmutableSettings.EMPTY, new StaticClusterService(metaData));
+        indices = Indices2416ParseBenchmark.indices(clusterIndices, wildcardDensity, null);
+    }
+
+    /**
+     * Baseline: expand the list against the metadata, then look for the current index.
+     */
+    @Benchmark
+    public boolean concreteIndices() {
+        for (String index : metaData.concreteIndices(indices, IgnoreIndices.MISSING, true)) {
+            if (Regex.simpleMatch(index, Indices2416ParseBenchmark.INDEX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean cached() {
+        return resolutionCache.matches(Indices2416ParseBenchmark.INDEX, indices);
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        return Indices2416IndicesMatcher.compile(metaData, indices).matches(Indices2416ParseBenchmark.INDEX);
+    }
+}
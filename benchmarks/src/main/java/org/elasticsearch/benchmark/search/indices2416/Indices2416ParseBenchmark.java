@@ -0,0 +1,254 @@
+package org.elasticsearch.benchmark.search.indices2416;
+
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.FileSystemUtils;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.query.Indices2416FilterParser;
+import org.elasticsearch.index.query.Indices2416QueryParser;
+import org.elasticsearch.index.query.Indices2416ResolutionCache;
+import org.elasticsearch.index.query.Indices2416Stats;
+import org.elasticsearch.index.query.Indices2416TemplateCache;
+import org.elasticsearch.index.query.IndexQueryParserService;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+
+/**
+ * Measures the throughput of {@link Indices2416QueryParser#parse} and {@link Indices2416FilterParser#parse}.
+ * <p/>
+ * The parsers run within a real index of a local node, but resolve the indices against a static cluster state
+ * holding <tt>clusterIndices</tt> indices. Run with <tt>-prof gc</tt> to get the allocation rate.
+ * <p/>
+ * Unless <tt>rotateMetaData</tt> is disabled, every parse sees a new metadata, so that the decisions of the
+ * {@link Indices2416ResolutionCache} are made again rather than looked up.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Indices2416ParseBenchmark {
+
+    static final String INDEX = "bench";
+
+    /**
+     * Whether the <tt>indices</tt> field comes before or after the branches.
+     */
+    @Param({"true", "false"})
+    public boolean indicesFirst;
+
+    /**
+     * Whether branches appearing before the <tt>indices</tt> are buffered instead of parsed.
+     */
+    @Param({"false", "true"})
+    public boolean deferParsing;
+
+    /**
+     * Number of indices in the cluster state the <tt>indices</tt> list gets resolved against.
+     */
+    @Param({"10", "100", "1000", "10000"})
+    public int clusterIndices;
+
+    /**
+     * Share of the <tt>indices</tt> entries being wildcard patterns rather than index names.
+     */
+    @Param({"0.0", "0.5", "1.0"})
+    public double wildcardDensity;
+
+    /**
+     * Nesting depth of the bool clauses making the branches.
+     */
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    /**
+     * Whether the benchmark index is part of the <tt>indices</tt>, hence which branch gets chosen.
+     */
+    @Param({"true", "false"})
+    public boolean matching;
+
+    /**
+     * Whether each parse runs against a new metadata, as right after a cluster state change, rather than finding
+     * the decision of the previous parse in the resolution cache.
+     */
+    @Param({"true", "false"})
+    public boolean rotateMetaData;
+
+    private File dataPath;
+
+    private Node node;
+
+    private QueryParseContext parseContext;
+
+    private Indices2416QueryParser queryParser;
+
+    private Indices2416FilterParser filterParser;
+
+    private BytesReference querySource;
+
+    private BytesReference filterSource;
+
+    private StaticClusterService clusterService;
+
+    /**
+     * Two copies of the same metadata, published in turn: the resolution cache tells them apart by identity.
+     */
+    private MetaData[] metaData;
+
+    private int published;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataPath = File.createTempFile("indices2416-benchmark", "");
+        dataPath.delete();
+        node = nodeBuilder().local(true).settings(ImmutableSettings.settingsBuilder()
+                .put("path.data", dataPath.getAbsolutePath())
+                .put("gateway.type", "none")
+                .put("index.store.type", "memory")
+                .put("index.number_of_shards", 1)
+                .put("index.number_of_replicas", 0))
+                .node();
+        node.client().admin().indices().prepareCreate(INDEX).get();
+        node.client().admin().cluster().prepareHealth(INDEX).setWaitForGreenStatus().get();
+
+        IndicesService indicesService = ((InternalNode) node).injector().getInstance(IndicesService.class);
+        IndexService indexService = indicesService.indexServiceSafe(INDEX);
+        IndexQueryParserService queryParserService = indexService.queryParserService();
+        parseContext = new QueryParseContext(indexService.index(), queryParserService);
+
+        Settings settings = ImmutableSettings.settingsBuilder().put(Indices2416QueryParser.DEFER_PARSING, deferParsing).build();
+        MetaData metaData = StaticClusterService.metaData(clusterIndices, INDEX);
+        this.metaData = new MetaData[]{metaData, MetaData.builder(metaData).build()};
+        clusterService = new StaticClusterService(metaData);
+        Indices2416ResolutionCache resolutionCache = new Indices2416ResolutionCache(settings, clusterService);
+        Indices2416Stats stats = new Indices2416Stats(settings, clusterService);
+        Indices2416TemplateCache templateCache = new Indices2416TemplateCache(settings, clusterService);
+        queryParser = new Indices2416QueryParser(settings, resolutionCache, stats, indicesService, templateCache);
+        filterParser = new Indices2416FilterParser(settings, resolutionCache, stats, indicesService, templateCache);
+
+        String[] indices = indices(clusterIndices, wildcardDensity, matching ? INDEX : null);
+        querySource = clause(indices, "query", "no_match_query");
+        filterSource = clause(indices, "filter", "no_match_filter");
+    }
+
+    @TearDown
+    public void tearDown() {
+        node.close();
+        FileSystemUtils.deleteRecursively(dataPath);
+    }
+
+    @Benchmark
+    public Query parseQuery() throws IOException {
+        rotateMetaData();
+        XContentParser parser = XContentHelper.createParser(querySource);
+        try {
+            parseContext.reset(parser);
+            parser.nextToken();
+            return queryParser.parse(parseContext);
+        } finally {
+            parser.close();
+        }
+    }
+
+    @Benchmark
+    public Filter parseFilter() throws IOException {
+        rotateMetaData();
+        XContentParser parser = XContentHelper.createParser(filterSource);
+        try {
+            parseContext.reset(parser);
+            parser.nextToken();
+            return filterParser.parse(parseContext);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void rotateMetaData() {
+        if (rotateMetaData) {
+            clusterService.publish(metaData[published++ & 1]);
+        }
+    }
+
+    /**
+     * Builds an <tt>indices</tt> list of 10 entries picked among the cluster indices, plus the given extra index.
+     */
+    static String[] indices(int clusterIndices, double wildcardDensity, String extraIndex) {
+        int size = 10;
+        String[] indices = new String[extraIndex != null ? size + 1 : size];
+        int wildcards = (int) Math.round(size * wildcardDensity);
+        for (int i = 0; i < size; i++) {
+            int index = (int) ((long) i * clusterIndices / size);
+            if (i < wildcards) {
+                // matches a tenth of the indices sharing the same prefix
+                indices[i] = String.format(Locale.ROOT, "logs-%04d*", index / 10);
+            } else {
+                indices[i] = String.format(Locale.ROOT, "logs-%05d", index);
+            }
+        }
+        if (extraIndex != null) {
+            indices[size] = extraIndex;
+        }
+        return indices;
+    }
+
+    private BytesReference clause(String[] indices, String branchField, String noMatchBranchField) throws IOException {
+        XContentBuilder builder = jsonBuilder().startObject();
+        if (indicesFirst) {
+            builder.field("indices", indices);
+        }
+        builder.field(branchField);
+        branch(builder, depth, "value1");
+        builder.field(noMatchBranchField);
+        branch(builder, depth, "value2");
+        if (!indicesFirst) {
+            builder.field("indices", indices);
+        }
+        return builder.endObject().bytes();
+    }
+
+    /**
+     * Writes nested bool clauses, which are spelled the same way for queries and filters.
+     */
+    private static void branch(XContentBuilder builder, int depth, String value) throws IOException {
+        builder.startObject();
+        if (depth <= 1) {
+            builder.startObject("term").field("text", value).endObject();
+        } else {
+            builder.startObject("bool").startArray("must");
+            branch(builder, depth - 1, value);
+            builder.startObject().startObject("term").field("field" + depth, value).endObject().endObject();
+            builder.endArray().endObject();
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,137 @@
+package org.elasticsearch.benchmark.search.indices2416;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.ClusterStateUpdateTask;
+import org.elasticsearch.cluster.LocalNodeMasterListener;
+import org.elasticsearch.cluster.TimeoutClusterStateListener;
+import org.elasticsearch.cluster.block.ClusterBlock;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.operation.OperationRouting;
+import org.elasticsearch.cluster.service.PendingClusterTask;
+import org.elasticsearch.common.Priority;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A cluster service returning the cluster state last published by the benchmark, so that the size of the metadata
+ * the parsers resolve indices against does not depend on the indices the benchmark node actually holds.
+ */
+public class StaticClusterService extends AbstractLifecycleComponent<ClusterService> implements ClusterService {
+
+    private volatile ClusterState state;
+
+    public StaticClusterService(MetaData metaData) {
+        super(ImmutableSettings.EMPTY);
+        this.state = ClusterState.builder().metaData(metaData).version(1).build();
+    }
+
+    /**
+     * Publishes the given metadata with the next cluster state version, as if it had just changed.
+     */
+    public void publish(MetaData metaData) {
+        state = ClusterState.builder().metaData(metaData).version(state.version() + 1).build();
+    }
+
+    /**
+     * Builds a metadata holding the given number of daily like <tt>logs-NNNNN</tt> indices, plus the given ones.
+     */
+    public static MetaData metaData(int numberOfIndices, String... extraIndices) {
+        MetaData.Builder builder = MetaData.builder();
+        for (int i = 0; i < numberOfIndices; i++) {
+            builder.put(indexMetaData(String.format(Locale.ROOT, "logs-%05d", i)));
+        }
+        for (String index : extraIndices) {
+            builder.put(indexMetaData(index));
+        }
+        return builder.build();
+    }
+
+    private static IndexMetaData.Builder indexMetaData(String index) {
+        return IndexMetaData.builder(index).settings(ImmutableSettings.settingsBuilder()
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0));
+    }
+
+    @Override
+    public DiscoveryNode localNode() {
+        return null;
+    }
+
+    @Override
+    public ClusterState state() {
+        return state;
+    }
+
+    @Override
+    public void addInitialStateBlock(ClusterBlock block) throws ElasticSearchIllegalStateException {
+    }
+
+    @Override
+    public OperationRouting operationRouting() {
+        return null;
+    }
+
+    @Override
+    public void addFirst(ClusterStateListener listener) {
+    }
+
+    @Override
+    public void addLast(ClusterStateListener listener) {
+    }
+
+    @Override
+    public void add(ClusterStateListener listener) {
+    }
+
+    @Override
+    public void remove(ClusterStateListener listener) {
+    }
+
+    @Override
+    public void add(LocalNodeMasterListener listener) {
+    }
+
+    @Override
+    public void remove(LocalNodeMasterListener listener) {
+    }
+
+    @Override
+    public void add(TimeValue timeout, TimeoutClusterStateListener listener) {
+    }
+
+    @Override
+    public void submitStateUpdateTask(String source, Priority priority, ClusterStateUpdateTask updateTask) {
+    }
+
+    @Override
+    public void submitStateUpdateTask(String source, ClusterStateUpdateTask updateTask) {
+    }
+
+    @Override
+    public List<PendingClusterTask> pendingTasks() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.common.xcontent.json;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.jackson.core.JsonStreamContext;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * Exposes the nesting of the objects and arrays a JSON, SMILE or YAML parser is within, as opaque identities that
+ * can be compared to tell whether a structure is a direct child of another one.
+ */
+public final class JsonXContentNesting {
+
+    private JsonXContentNesting() {
+    }
+
+    /**
+     * Returns the identity of the structure the parser is within, or <tt>null</tt> if unknown.
+     */
+    @Nullable
+    public static Object current(XContentParser parser) {
+        if (!(parser instanceof JsonXContentParser)) {
+            return null;
+        }
+        return ((JsonXContentParser) parser).parser.getParsingContext();
+    }
+
+    /**
+     * Returns the identity of the structure enclosing the one the parser is within, or <tt>null</tt> if unknown.
+     */
+    @Nullable
+    public static Object parent(XContentParser parser) {
+        if (!(parser instanceof JsonXContentParser)) {
+            return null;
+        }
+        return ((JsonXContentParser) parser).parser.getParsingContext().getParent();
+    }
+
+    /**
+     * Returns whether the object the parser is within is the body of a clause held by the given field of the root
+     * object, like the clause body of <tt>{"query":{"clause":{...}}}</tt>. Returns <tt>false</tt> if unknown.
+     */
+    public static boolean rootClause(XContentParser parser, String fieldName) {
+        if (!(parser instanceof JsonXContentParser)) {
+            return false;
+        }
+        JsonStreamContext clause = ((JsonXContentParser) parser).parser.getParsingContext().getParent();
+        JsonStreamContext root = clause != null ? clause.getParent() : null;
+        return root != null && root.getParent() != null && root.getParent().inRoot() && fieldName.equals(root.getCurrentName());
+    }
+}
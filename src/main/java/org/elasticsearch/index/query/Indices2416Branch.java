@@ -0,0 +1,125 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The raw source of a query or filter branch of an <tt>indices2416</tt> clause, buffered as is until we know
+ * whether the current index needs it.
+ */
+class Indices2416Branch {
+
+    private static final byte[] NAME_FIELD = "_name".getBytes(Charsets.UTF_8);
+
+    private final BytesReference source;
+
+    Indices2416Branch(BytesReference source) {
+        this.source = source;
+    }
+
+    /**
+     * Copies the object the parser is positioned on, without building anything out of it.
+     */
+    static Indices2416Branch buffer(XContentParser parser) throws IOException {
+        XContentBuilder builder = XContentFactory.contentBuilder(parser.contentType());
+        builder.copyCurrentStructure(parser);
+        return new Indices2416Branch(builder.bytes());
+    }
+
+    BytesReference source() {
+        return source;
+    }
+
+    /**
+     * Returns whether the source holds a <tt>_name</tt> field, whose named queries or filters need to be collected
+     * while parsing the request.
+     */
+    boolean named() {
+        return contains(source, NAME_FIELD);
+    }
+
+    /**
+     * Returns whether the given bytes appear anywhere in the given source.
+     */
+    static boolean contains(BytesReference source, byte[] bytes) {
+        BytesRef ref = source.toBytesRef();
+        int end = ref.offset + ref.length - bytes.length;
+        outer:
+        for (int i = ref.offset; i <= end; i++) {
+            for (int j = 0; j < bytes.length; j++) {
+                if (ref.bytes[i + j] != bytes[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    Query toQuery(QueryParseContext parseContext) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            QueryParseContext context = innerContext(parseContext, parser);
+            Query query = context.parseInnerQuery();
+            copyNamedFilters(context, parseContext);
+            return query;
+        } finally {
+            parser.close();
+        }
+    }
+
+    Filter toFilter(QueryParseContext parseContext) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            QueryParseContext context = innerContext(parseContext, parser);
+            Filter filter = context.parseInnerFilter();
+            copyNamedFilters(context, parseContext);
+            return filter;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static QueryParseContext innerContext(QueryParseContext parseContext, XContentParser parser) throws IOException {
+        // resetting the current context would drop the named filters collected so far, use a sibling one instead
+        QueryParseContext context = new QueryParseContext(parseContext.index(), parseContext.indexQueryParser);
+        context.reset(parser);
+        parser.nextToken();
+        return context;
+    }
+
+    private static void copyNamedFilters(QueryParseContext from, QueryParseContext to) {
+        for (Map.Entry<String, Filter> entry : from.copyNamedFilters().entrySet()) {
+            to.addNamedFilter(entry.getKey(), entry.getValue());
+        }
+    }
+}
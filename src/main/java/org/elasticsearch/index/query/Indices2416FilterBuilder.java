@@ -19,9 +19,12 @@
 
 package org.elasticsearch.index.query;
 
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A filter that will execute the wrapped filter only for the specified indices, and "match_all" when
@@ -33,16 +36,64 @@ public class Indices2416FilterBuilder extends BaseFilterBuilder {
 
     private final String[] indices;
 
+    private List<String> indicesRanges;
+
+    private List<String[]> indicesDateRanges;
+
+    private String[] excludedIndices;
+
     private String sNoMatchFilter;
     private FilterBuilder noMatchFilter;
 
     private String filterName;
 
+    private Boolean aliasFilters;
+
+    private Boolean profile;
+
+    private Boolean cache;
+    private String cacheKey;
+
     public Indices2416FilterBuilder(FilterBuilder filterBuilder, String... indices) {
         this.filterBuilder = filterBuilder;
         this.indices = indices;
     }
 
+    /**
+     * Adds the indices whose names are between the given ones, both included, without listing them all. Names
+     * are compared lexicographically, zero padded dates or numbers of the same length can thus be used.
+     */
+    public Indices2416FilterBuilder indicesRange(String from, String to) {
+        if (indicesRanges == null) {
+            indicesRanges = new ArrayList<String>();
+        }
+        indicesRanges.add(from + ".." + to);
+        return this;
+    }
+
+    /**
+     * Adds the indices made of the given prefix followed by a date in the given format, <tt>yyyy.MM.dd</tt> if
+     * <tt>null</tt>, whose date is between the given bounds, both included. Bounds can use date math, like
+     * <tt>now-7d/d</tt>, either of them can be <tt>null</tt> for a range open on that side.
+     */
+    public Indices2416FilterBuilder indicesDateRange(String prefix, @Nullable String format, @Nullable String from, @Nullable String to) {
+        if (indicesDateRanges == null) {
+            indicesDateRanges = new ArrayList<String[]>();
+        }
+        indicesDateRanges.add(new String[]{prefix, format, from, to});
+        return this;
+    }
+
+    /**
+     * Sets the indices, aliases or wildcard patterns to leave out of the specified indices. They come last in the
+     * list, so that they apply to all of them. If no index has been specified, all the indices but the excluded ones
+     * apply.
+     */
+    public Indices2416FilterBuilder excludeIndices(String... excludedIndices) {
+        this.excludedIndices = excludedIndices;
+        return this;
+    }
+
     /**
      * Sets the no match filter, can either be <tt>all</tt> or <tt>none</tt>.
      */
@@ -67,10 +118,82 @@ public class Indices2416FilterBuilder extends BaseFilterBuilder {
         return this;
     }
 
+    /**
+     * Should the chosen filter be cached. Defaults to <tt>false</tt>.
+     */
+    public Indices2416FilterBuilder cache(boolean cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Sets the cache key of the chosen filter. Defaults to the source of the chosen filter when it gets buffered.
+     */
+    public Indices2416FilterBuilder cacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+        return this;
+    }
+
+    /**
+     * Sets whether, when the index it executes on only matches the indices provided through filtered aliases, the
+     * filters of these aliases should be applied to the chosen filter. Defaults to <tt>false</tt>.
+     */
+    public Indices2416FilterBuilder aliasFilters(boolean aliasFilters) {
+        this.aliasFilters = aliasFilters;
+        return this;
+    }
+
+    /**
+     * Sets whether to report how the filter got parsed for each shard, through the <tt>indices2416_profile</tt> facet.
+     * Defaults to <tt>false</tt>.
+     */
+    public Indices2416FilterBuilder profile(boolean profile) {
+        this.profile = profile;
+        return this;
+    }
+
     @Override
     protected void doXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject(Indices2416FilterParser.NAME);
-        builder.field("indices", indices);
+        if (profile != null) {
+            // first, so that the whole clause gets measured
+            builder.field("profile", profile);
+        }
+        if (indicesRanges == null && indicesDateRanges == null && excludedIndices == null) {
+            builder.field("indices", indices);
+        } else {
+            builder.startArray("indices");
+            for (String index : indices) {
+                builder.value(index);
+            }
+            if (indicesRanges != null) {
+                for (String indicesRange : indicesRanges) {
+                    builder.value(indicesRange);
+                }
+            }
+            if (indicesDateRanges != null) {
+                for (String[] indicesDateRange : indicesDateRanges) {
+                    builder.startObject();
+                    builder.field("prefix", indicesDateRange[0]);
+                    if (indicesDateRange[1] != null) {
+                        builder.field("format", indicesDateRange[1]);
+                    }
+                    if (indicesDateRange[2] != null) {
+                        builder.field("from", indicesDateRange[2]);
+                    }
+                    if (indicesDateRange[3] != null) {
+                        builder.field("to", indicesDateRange[3]);
+                    }
+                    builder.endObject();
+                }
+            }
+            if (excludedIndices != null) {
+                for (String excludedIndex : excludedIndices) {
+                    builder.value("-" + excludedIndex);
+                }
+            }
+            builder.endArray();
+        }
         builder.field("filter");
         filterBuilder.toXContent(builder, params);
         if (noMatchFilter != null) {
@@ -79,10 +202,19 @@ public class Indices2416FilterBuilder extends BaseFilterBuilder {
         } else if (sNoMatchFilter != null) {
             builder.field("no_match_filter", sNoMatchFilter);
         }
+        if (aliasFilters != null) {
+            builder.field("alias_filters", aliasFilters);
+        }
 
         if (filterName != null) {
             builder.field("_name", filterName);
         }
+        if (cache != null) {
+            builder.field("_cache", cache);
+        }
+        if (cacheKey != null) {
+            builder.field("_cache_key", cacheKey);
+        }
 
         builder.endObject();
     }
@@ -20,30 +20,30 @@
 package org.elasticsearch.index.query;
 
 import org.apache.lucene.search.Filter;
-import org.elasticsearch.action.support.IgnoreIndices;
-import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.ImmutableList;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.search.AndFilter;
 import org.elasticsearch.common.lucene.search.Queries;
-import org.elasticsearch.common.regex.Regex;
-import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.cache.filter.support.CacheKeyFilter;
+import org.elasticsearch.indices.IndicesService;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
 
 /**
  */
-public class Indices2416FilterParser implements FilterParser {
+public class Indices2416FilterParser extends Indices2416ParseEngine<Filter> implements FilterParser {
 
     public static final String NAME = "indices2416";
 
-    @Nullable
-    private final ClusterService clusterService;
-
     @Inject
-    public Indices2416FilterParser(@Nullable ClusterService clusterService) {
-        this.clusterService = clusterService;
+    public Indices2416FilterParser(Settings settings, Indices2416ResolutionCache resolutionCache, Indices2416Stats stats,
+                                   IndicesService indicesService, Indices2416TemplateCache templateCache) {
+        super("indices", "filter", resolutionCache, stats, indicesService, templateCache, settings.getAsBoolean(DEFER_PARSING, false));
+        field("_cache", CACHE);
+        field("_cache_key", CACHE_KEY);
+        field("_cacheKey", CACHE_KEY);
     }
 
     @Override
@@ -53,94 +53,67 @@ public class Indices2416FilterParser implements FilterParser {
 
     @Override
     public Filter parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
-        XContentParser parser = parseContext.parser();
-
-        Filter filter = null;
-        Filter noMatchFilter = Queries.MATCH_ALL_FILTER;
-        boolean filterFound = false;
-        boolean indicesFound = false;
-        boolean currentIndexMatchesIndices = false;
-
-        String currentFieldName = null;
-        XContentParser.Token token;
-        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
-            if (token == XContentParser.Token.FIELD_NAME) {
-                currentFieldName = parser.currentName();
-            } else if (token == XContentParser.Token.START_OBJECT) {
-                if ("filter".equals(currentFieldName)) {
-                    filterFound = true;
-                    //TODO We are able to decide whether to parse the filter or not only if indices in the query appears first
-                    if (indicesFound && !currentIndexMatchesIndices) {
-                        parseContext.parser().skipChildren(); // skip the filter object without parsing it
-                    } else {
-                        filter = parseContext.parseInnerFilter();
-                    }
-                } else if ("no_match_filter".equals(currentFieldName)) {
-                    if (indicesFound && currentIndexMatchesIndices) {
-                        parseContext.parser().skipChildren(); // skip the filter object without parsing it
-                    } else {
-                        noMatchFilter = parseContext.parseInnerFilter();
-                    }
-                } else {
-                    throw new QueryParsingException(parseContext.index(), "[indices] filter does not support [" + currentFieldName + "]");
-                }
-            } else if (token == XContentParser.Token.START_ARRAY) {
-                if ("indices".equals(currentFieldName)) {
-                    if (indicesFound) {
-                        throw  new QueryParsingException(parseContext.index(), "[indices] indices or index already specified");
-                    }
-                    indicesFound = true;
-                    Collection<String> indices = new ArrayList<String>();
-                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
-                        String value = parser.textOrNull();
-                        if (value == null) {
-                            throw new QueryParsingException(parseContext.index(), "[indices] no value specified for 'indices' entry");
-                        }
-                        indices.add(value);
-                    }
-                    currentIndexMatchesIndices = matchesIndices(parseContext.index().name(), indices.toArray(new String[indices.size()]));
-                } else {
-                    throw new QueryParsingException(parseContext.index(), "[indices] filter does not support [" + currentFieldName + "]");
-                }
-            } else if (token.isValue()) {
-                if ("index".equals(currentFieldName)) {
-                    if (indicesFound) {
-                        throw  new QueryParsingException(parseContext.index(), "[indices] indices or index already specified");
-                    }
-                    indicesFound = true;
-                    currentIndexMatchesIndices = matchesIndices(parseContext.index().name(), parser.text());
-                } else if ("no_match_filter".equals(currentFieldName)) {
-                    String type = parser.text();
-                    if ("all".equals(type)) {
-                        noMatchFilter = Queries.MATCH_ALL_FILTER;
-                    } else if ("none".equals(type)) {
-                        noMatchFilter = Queries.MATCH_NO_FILTER;
-                    }
-                } else {
-                    throw new QueryParsingException(parseContext.index(), "[indices] filter does not support [" + currentFieldName + "]");
-                }
-            }
-        }
-        if (!filterFound) {
-            throw new QueryParsingException(parseContext.index(), "[indices] requires 'filter' element");
+        return parseCached(parseContext, false);
+    }
+
+    @Override
+    protected Filter parseInner(QueryParseContext parseContext) throws IOException {
+        return parseContext.parseInnerFilter();
+    }
+
+    @Override
+    protected Filter parseBranch(Indices2416Branch branch, QueryParseContext parseContext, boolean lazy) throws IOException {
+        return branch.toFilter(parseContext);
+    }
+
+    @Override
+    protected Filter matchAll() {
+        return Queries.MATCH_ALL_FILTER;
+    }
+
+    @Override
+    protected Filter matchNone() {
+        return Queries.MATCH_NO_FILTER;
+    }
+
+    @Override
+    protected Filter filtered(Filter branch, Filter filter) {
+        return restrict(branch, filter);
+    }
+
+    /**
+     * Restricts the given filter to the documents matching the other one, short-circuiting the all and none
+     * outcomes.
+     */
+    static Filter restrict(Filter branch, Filter filter) {
+        if (branch == Queries.MATCH_NO_FILTER) {
+            return branch;
         }
-        if (!indicesFound) {
-            throw new QueryParsingException(parseContext.index(), "[indices] requires 'indices' or 'index' element");
+        if (branch == Queries.MATCH_ALL_FILTER) {
+            return filter;
         }
+        return new AndFilter(ImmutableList.of(branch, filter));
+    }
 
-        if (currentIndexMatchesIndices) {
-            return filter;
+    @Override
+    protected Filter chosen(QueryParseContext parseContext, Filter chosen, @Nullable Indices2416Branch source, @Nullable String name,
+                            boolean cache, @Nullable CacheKeyFilter.Key cacheKey) {
+        Filter filter = cache(parseContext, chosen, cache, cacheKey);
+        if (name != null) {
+            parseContext.addNamedFilter(name, filter);
         }
-        return noMatchFilter;
+        return filter;
     }
 
-    protected boolean matchesIndices(String currentIndex, String... indices) {
-        String[] concreteIndices = clusterService.state().metaData().concreteIndices(indices, IgnoreIndices.MISSING, true);
-        for (String index : concreteIndices) {
-            if (Regex.simpleMatch(index, currentIndex)) {
-                return true;
-            }
+    /**
+     * Caches the chosen branch when asked to. Unless an explicit cache key is given, the filter itself is the key,
+     * whether the branch got buffered or not: its source alone does not tell the types it was parsed with, nor the
+     * time <tt>now</tt> stood for.
+     */
+    static Filter cache(QueryParseContext parseContext, Filter filter, boolean cache, @Nullable CacheKeyFilter.Key cacheKey) {
+        if (!cache || filter == Queries.MATCH_ALL_FILTER || filter == Queries.MATCH_NO_FILTER) {
+            return filter;
         }
-        return false;
+        return parseContext.cacheFilter(filter, cacheKey);
     }
 }
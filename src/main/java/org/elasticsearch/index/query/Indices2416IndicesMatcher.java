@@ -0,0 +1,408 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.BasicAutomata;
+import org.apache.lucene.util.automaton.BasicOperations;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.joda.DateMathParser;
+import org.elasticsearch.common.joda.FormatDateTimeFormatter;
+import org.elasticsearch.common.joda.Joda;
+import org.elasticsearch.common.joda.time.format.DateTimeFormatter;
+import org.elasticsearch.common.regex.Regex;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiled form of the <tt>indices</tt> list of an <tt>indices2416</tt> clause, telling whether an index is part of
+ * the indices it resolves to in time proportional to the length of the index name, whatever the number of indices
+ * in the cluster.
+ * <p/>
+ * Literal names, and the indices of the aliases the list refers to, are looked up in a set. Wildcard patterns are
+ * compiled into a single automaton run against the index name, one per run of consecutive inclusions or exclusions. Ranges of names, like
+ * <tt>logs-2013.11.01..logs-2013.11.30</tt>, and ranges of dates are compared against the index name as is,
+ * without being expanded.
+ */
+public class Indices2416IndicesMatcher {
+
+    private static final Range[] NO_RANGES = new Range[0];
+
+    public static final Indices2416IndicesMatcher ALL = new Indices2416IndicesMatcher(ImmutableSet.<String>of(), new CharacterRunAutomaton(BasicAutomata.makeAnyString()));
+
+    private final Set<String> names;
+
+    @Nullable
+    private final CharacterRunAutomaton patterns;
+
+    private final Range[] ranges;
+
+    /**
+     * Whether the entries compiled into this matcher exclude the indices they cover rather than include them.
+     */
+    private final boolean excluding;
+
+    /**
+     * Matcher of the entries coming before those compiled into this one, which decides for the indices none of these
+     * entries cover.
+     */
+    @Nullable
+    private final Indices2416IndicesMatcher previous;
+
+    Indices2416IndicesMatcher(Set<String> names, @Nullable CharacterRunAutomaton patterns) {
+        this(names, patterns, NO_RANGES, false, null);
+    }
+
+    Indices2416IndicesMatcher(Set<String> names, @Nullable CharacterRunAutomaton patterns, Range[] ranges, boolean excluding,
+                              @Nullable Indices2416IndicesMatcher previous) {
+        this.names = names;
+        this.patterns = patterns;
+        this.ranges = ranges;
+        this.excluding = excluding;
+        this.previous = previous;
+    }
+
+    public boolean matches(String index) {
+        Indices2416IndicesMatcher matcher = this;
+        do {
+            if (matcher.covers(index)) {
+                return !matcher.excluding;
+            }
+            matcher = matcher.previous;
+        } while (matcher != null);
+        return false;
+    }
+
+    private boolean covers(String index) {
+        return names.contains(index) || (patterns != null && patterns.run(index)) || (ranges.length > 0 && Range.contains(ranges, index));
+    }
+
+    /**
+     * Compiles the given indices, aliases or wildcard patterns against the given cluster metadata.
+     * <p/>
+     * As with the search API, entries are applied from left to right: those prefixed with <tt>-</tt> remove the
+     * indices they resolve to from what the previous entries resolved to, while those prefixed with <tt>+</tt>, like
+     * unprefixed ones, add them. A list starting with an exclusion starts from all the indices.
+     * <p/>
+     * Each run of consecutive inclusions or exclusions gets compiled on its own, so that an index is checked against
+     * the runs from the last one on, until one of them covers it.
+     */
+    public static Indices2416IndicesMatcher compile(MetaData metaData, String... indices) {
+        if (indices.length == 0 || (indices.length == 1 && "_all".equals(indices[0]))) {
+            return ALL;
+        }
+        Map<String, Map<String, AliasMetaData>> aliases = metaData.aliases();
+        Indices2416IndicesMatcher matcher = excluding(indices[0]) ? ALL : null;
+        int start = 0;
+        while (start < indices.length) {
+            boolean excluding = excluding(indices[start]);
+            Set<String> names = new HashSet<String>();
+            List<Automaton> patterns = new ArrayList<Automaton>();
+            List<Range> ranges = new ArrayList<Range>();
+            int end = start;
+            for (; end < indices.length && excluding(indices[end]) == excluding; end++) {
+                String index = indices[end];
+                if (excluding || (index.length() > 0 && index.charAt(0) == '+')) {
+                    index = index.substring(1);
+                }
+                if ("_all".equals(index)) {
+                    patterns.add(BasicAutomata.makeAnyString());
+                } else {
+                    resolve(index, metaData, aliases, names, patterns, ranges);
+                }
+            }
+            matcher = new Indices2416IndicesMatcher(ImmutableSet.copyOf(names), patterns.isEmpty() ? null : new CharacterRunAutomaton(BasicOperations.union(patterns)),
+                    ranges.toArray(new Range[ranges.size()]), excluding, matcher);
+            start = end;
+        }
+        return matcher;
+    }
+
+    private static boolean excluding(String index) {
+        return index.length() > 0 && index.charAt(0) == '-';
+    }
+
+    /**
+     * Adds the names of the indices the given index, alias or wildcard pattern refers to, the automaton of the
+     * pattern, or the range.
+     */
+    private static void resolve(String index, MetaData metaData, Map<String, Map<String, AliasMetaData>> aliases, Set<String> names,
+                                List<Automaton> patterns, List<Range> ranges) {
+        Range range = Range.parse(metaData, index);
+        if (range != null) {
+            ranges.add(range);
+        } else if (Regex.isSimpleMatchPattern(index)) {
+            patterns.add(wildcard(index));
+            // wildcards also expand to the aliases they match, there usually are much less aliases than indices
+            for (Map.Entry<String, Map<String, AliasMetaData>> alias : aliases.entrySet()) {
+                if (Regex.simpleMatch(index, alias.getKey())) {
+                    names.addAll(alias.getValue().keySet());
+                }
+            }
+        } else if (aliases.containsKey(index)) {
+            names.addAll(aliases.get(index).keySet());
+        } else {
+            names.add(index);
+        }
+    }
+
+    /**
+     * Returns the filtered aliases through which the given index is part of the given indices, or <tt>null</tt> if
+     * the index is also part of them directly, or through an alias without filter, in which case no filter applies.
+     * The index must match the given indices.
+     */
+    @Nullable
+    public static String[] filteringAliases(MetaData metaData, String index, String... indices) {
+        IndexMetaData indexMetaData = metaData.index(index);
+        if (indexMetaData == null || indices.length == 0) {
+            return null;
+        }
+        List<String> filteringAliases = null;
+        for (String expression : indices) {
+            if (expression.length() > 0 && expression.charAt(0) == '-') {
+                continue;
+            }
+            if (expression.length() > 0 && expression.charAt(0) == '+') {
+                expression = expression.substring(1);
+            }
+            if ("_all".equals(expression) || expression.equals(index)) {
+                return null;
+            }
+            Range range = Range.parse(metaData, expression);
+            if (range != null) {
+                if (range.contains(index)) {
+                    return null;
+                }
+                continue;
+            }
+            boolean pattern = Regex.isSimpleMatchPattern(expression);
+            if (pattern && Regex.simpleMatch(expression, index)) {
+                return null;
+            }
+            for (AliasMetaData alias : indexMetaData.aliases().values()) {
+                if (pattern ? Regex.simpleMatch(expression, alias.alias()) : expression.equals(alias.alias())) {
+                    if (!alias.filteringRequired()) {
+                        return null;
+                    }
+                    if (filteringAliases == null) {
+                        filteringAliases = new ArrayList<String>();
+                    }
+                    if (!filteringAliases.contains(alias.alias())) {
+                        filteringAliases.add(alias.alias());
+                    }
+                }
+            }
+        }
+        return filteringAliases == null ? null : filteringAliases.toArray(new String[filteringAliases.size()]);
+    }
+
+    /**
+     * Builds the automaton accepting the same names as {@link Regex#simpleMatch(String, String)} does.
+     */
+    static Automaton wildcard(String pattern) {
+        List<Automaton> parts = new ArrayList<Automaton>();
+        int start = 0;
+        int star;
+        while ((star = pattern.indexOf('*', start)) != -1) {
+            parts.add(BasicAutomata.makeString(pattern.substring(start, star)));
+            parts.add(BasicAutomata.makeAnyString());
+            start = star + 1;
+        }
+        parts.add(BasicAutomata.makeString(pattern.substring(start)));
+        return BasicOperations.concatenate(parts);
+    }
+
+    /**
+     * Range of indices, either of names or of dates.
+     */
+    abstract static class Range {
+
+        static final String SEPARATOR = "..";
+
+        abstract boolean contains(String index);
+
+        /**
+         * Returns the range the given entry stands for, or <tt>null</tt> if it is not one. Index names may hold
+         * <tt>..</tt> too, an entry naming an existing index or alias is never a range.
+         */
+        @Nullable
+        static Range parse(MetaData metaData, String entry) {
+            if (metaData.hasIndex(entry) || metaData.aliases().containsKey(entry)) {
+                return null;
+            }
+            return parse(entry);
+        }
+
+        /**
+         * Returns the range the given entry stands for, or <tt>null</tt> if it is not one.
+         */
+        @Nullable
+        static Range parse(String entry) {
+            if (entry.startsWith(DateRange.START) && entry.endsWith(DateRange.END)) {
+                return DateRange.parse(entry);
+            }
+            int separator = entry.indexOf(SEPARATOR);
+            if (separator <= 0 || separator + SEPARATOR.length() >= entry.length() || Regex.isSimpleMatchPattern(entry)) {
+                return null;
+            }
+            return new NameRange(entry.substring(0, separator), entry.substring(separator + SEPARATOR.length()));
+        }
+
+        static boolean contains(Range[] ranges, String index) {
+            for (Range range : ranges) {
+                if (range.contains(index)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Range of index names written <tt>from..to</tt>, bounds included. Names are compared lexicographically, and
+     * when both bounds have the same length, only names of that length are part of the range, so that zero padded
+     * dates or numbers compare as expected.
+     */
+    static class NameRange extends Range {
+
+        private final String from;
+
+        private final String to;
+
+        NameRange(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        boolean contains(String index) {
+            if (from.length() == to.length() && index.length() != from.length()) {
+                return false;
+            }
+            return from.compareTo(index) <= 0 && index.compareTo(to) <= 0;
+        }
+    }
+
+    /**
+     * Range of the indices made of a prefix followed by a date, whose date is between two bounds, both included.
+     * The date of the index is parsed and compared to the bounds as a number of milliseconds.
+     * <p/>
+     * Written <tt>&lt;prefix{format}from..to&gt;</tt>, the bounds being printed with the format, either of them
+     * being empty if the range is open on that side. Neither <tt>&lt;</tt> nor <tt>&gt;</tt> can be part of an
+     * index name.
+     */
+    static class DateRange extends Range {
+
+        static final String START = "<";
+
+        static final String END = ">";
+
+        private final String prefix;
+
+        private final DateTimeFormatter parser;
+
+        private final long from;
+
+        private final long to;
+
+        DateRange(String prefix, DateTimeFormatter parser, long from, long to) {
+            this.prefix = prefix;
+            this.parser = parser;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Returns the entry for the dated indices with the given prefix and format, whose bounds may use date math
+         * resolved against the given time, either of them being <tt>null</tt> for a range open on that side.
+         */
+        static String entry(String prefix, String format, @Nullable String from, @Nullable String to, long now) {
+            FormatDateTimeFormatter formatter = Joda.forPattern(format);
+            DateMathParser dateMathParser = new DateMathParser(formatter, TimeUnit.MILLISECONDS);
+            Long upper = null;
+            if (to != null) {
+                // rounding up gives the start of the next unit, which is not part of the range
+                long ceil = dateMathParser.parseRoundCeil(to, now);
+                upper = ceil != dateMathParser.parse(to, now) ? ceil - 1 : ceil;
+            }
+            return entry(prefix, formatter, from != null ? dateMathParser.parse(from, now) : null, upper);
+        }
+
+        /**
+         * Returns the entry for the given range, the bounds being rounded to the precision of the format so that
+         * the entry only changes when a new index falls into the range.
+         */
+        static String entry(String prefix, FormatDateTimeFormatter format, @Nullable Long from, @Nullable Long to) {
+            StringBuilder entry = new StringBuilder(START).append(prefix).append('{').append(format.format()).append('}');
+            if (from != null) {
+                entry.append(format.printer().print(from));
+            }
+            entry.append(SEPARATOR);
+            if (to != null) {
+                entry.append(format.printer().print(to));
+            }
+            return entry.append(END).toString();
+        }
+
+        @Nullable
+        static DateRange parse(String entry) {
+            int formatStart = entry.indexOf('{');
+            int formatEnd = entry.indexOf('}', formatStart + 1);
+            int separator = entry.indexOf(SEPARATOR, formatEnd + 1);
+            if (formatStart < 0 || formatEnd < 0 || separator < 0) {
+                return null;
+            }
+            String from = entry.substring(formatEnd + 1, separator);
+            String to = entry.substring(separator + SEPARATOR.length(), entry.length() - END.length());
+            try {
+                DateTimeFormatter parser = Joda.forPattern(entry.substring(formatStart + 1, formatEnd)).parser();
+                return new DateRange(entry.substring(START.length(), formatStart), parser,
+                        from.isEmpty() ? Long.MIN_VALUE : parser.parseMillis(from), to.isEmpty() ? Long.MAX_VALUE : parser.parseMillis(to));
+            } catch (IllegalArgumentException e) {
+                // compiled for the node rather than for an index, the shard failure tells which index it was
+                throw new QueryParsingException(null, "[" + Indices2416QueryParser.NAME + "] failed to parse indices date range [" + entry + "]", e);
+            }
+        }
+
+        @Override
+        boolean contains(String index) {
+            if (!index.startsWith(prefix)) {
+                return false;
+            }
+            long date;
+            try {
+                date = parser.parseMillis(index.substring(prefix.length()));
+            } catch (IllegalArgumentException e) {
+                return false; // not a dated index
+            }
+            return from <= date && date <= to;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.ToStringUtils;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.lucene.search.MatchNoDocsQuery;
+import org.elasticsearch.index.Index;
+
+import java.io.IOException;
+
+/**
+ * Stands for the branch chosen by an <tt>indices2416</tt> query until the searcher rewrites it, which is when the
+ * branch gets parsed. A search that never gets to run its query phase never pays for building the branch.
+ * <p/>
+ * The branch gets parsed with the types of the request, and against the search context current at rewrite time.
+ * <p/>
+ * Only used for the clause making the whole query of a search: a branch parsing to nothing, like an empty <tt>bool</tt>
+ * query, then matches no document, which is what the search does with a query parsing to
+ * nothing. Parsing failures are still reported as {@link QueryParsingException}s, although by the query phase.
+ */
+final class Indices2416LazyQuery extends Query {
+
+    private final Indices2416Branch branch;
+
+    private final Index index;
+
+    private final IndexQueryParserService queryParserService;
+
+    @Nullable
+    private final String[] types;
+
+    private volatile Query query;
+
+    Indices2416LazyQuery(Indices2416Branch branch, QueryParseContext parseContext) {
+        this.branch = branch;
+        this.index = parseContext.index();
+        this.queryParserService = parseContext.indexQueryParser;
+        this.types = QueryParseContext.getTypes();
+    }
+
+    /**
+     * Parses the branch the first time it is needed.
+     */
+    Query query() throws IOException {
+        if (query == null) {
+            String[] previousTypes = QueryParseContext.setTypesWithPrevious(types);
+            try {
+                Query query = branch.toQuery(new QueryParseContext(index, queryParserService));
+                this.query = query != null ? query : new MatchNoDocsQuery();
+            } catch (IOException e) {
+                throw new QueryParsingException(index, "[" + Indices2416QueryParser.NAME + "] failed to parse the chosen branch", e);
+            } finally {
+                QueryParseContext.setTypes(previousTypes);
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query query = query();
+        if (getBoost() != 1.0f) {
+            query = query.clone();
+            query.setBoost(query.getBoost() * getBoost());
+        }
+        return query;
+    }
+
+    @Override
+    public String toString(String field) {
+        return Indices2416QueryParser.NAME + "(" + branch.source().toUtf8() + ")" + ToStringUtils.boost(getBoost());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Indices2416LazyQuery that = (Indices2416LazyQuery) o;
+        return getBoost() == that.getBoost() && index.equals(that.index) && branch.source().equals(that.branch.source());
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Float.floatToIntBits(getBoost());
+        result = 31 * result + index.hashCode();
+        result = 31 * result + branch.source().hashCode();
+        return result;
+    }
+}
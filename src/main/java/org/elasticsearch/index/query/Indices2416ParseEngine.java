@@ -0,0 +1,717 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.Filter;
+import org.elasticsearch.ElasticSearchParseException;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContentNesting;
+import org.elasticsearch.index.cache.filter.support.CacheKeyFilter;
+import org.elasticsearch.indices.IndicesService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parsing logic shared by the query and filter variants of the <tt>indices2416</tt> and <tt>indices2416_switch</tt>
+ * clauses, <tt>T</tt> being either a query or a filter.
+ * <p/>
+ * Field names are mapped once to an integer identifier, so that each token is dispatched with a single lookup and
+ * a switch instead of a chain of string comparisons.
+ */
+abstract class Indices2416ParseEngine<T> {
+
+    static final int UNKNOWN = 0;
+    static final int BRANCH = 1;
+    static final int NO_MATCH_BRANCH = 2;
+    static final int INDICES = 3;
+    static final int INDEX = 4;
+    static final int NAME = 5;
+    static final int CACHE = 6;
+    static final int CACHE_KEY = 7;
+    static final int CASES = 8;
+    static final int DEFAULT = 9;
+    static final int ALIAS_FILTERS = 10;
+    static final int PROFILE = 11;
+
+    /**
+     * Whether to buffer the branches appearing before the indices, so that only the relevant one gets parsed. Shared
+     * by the query and filter parsers.
+     */
+    public static final String DEFER_PARSING = "indices2416.defer_parsing";
+
+    static final String DEFAULT_DATE_FORMAT = "yyyy.MM.dd";
+
+    /**
+     * The branch of an <tt>indices2416</tt> clause being parsed by the current thread, if any.
+     */
+    private static final ThreadLocal<Enclosing> ENCLOSING = new ThreadLocal<Enclosing>();
+
+    private final Indices2416ResolutionCache resolutionCache;
+
+    private final Indices2416Stats stats;
+
+    private final IndicesService indicesService;
+
+    private final Indices2416TemplateCache templateCache;
+
+    private final boolean deferParsing;
+
+    /**
+     * Name of the clause as used in error messages.
+     */
+    private final String clauseName;
+
+    /**
+     * Either <tt>query</tt> or <tt>filter</tt>, which also is the name of the branch field.
+     */
+    private final String kind;
+
+    /**
+     * Only written to while constructing the parser.
+     */
+    private final Map<String, Integer> fields = new HashMap<String, Integer>();
+
+    Indices2416ParseEngine(String clauseName, String kind, Indices2416ResolutionCache resolutionCache, Indices2416Stats stats,
+                           IndicesService indicesService, Indices2416TemplateCache templateCache, boolean deferParsing) {
+        this.clauseName = clauseName;
+        this.kind = kind;
+        this.resolutionCache = resolutionCache;
+        this.stats = stats;
+        this.indicesService = indicesService;
+        this.templateCache = templateCache;
+        this.deferParsing = deferParsing;
+        field(kind, BRANCH);
+        field("no_match_" + kind, NO_MATCH_BRANCH);
+        field("indices", INDICES);
+        field("index", INDEX);
+        field("_name", NAME);
+        field("cases", CASES);
+        field("default", DEFAULT);
+        field("alias_filters", ALIAS_FILTERS);
+        field("profile", PROFILE);
+    }
+
+    protected final void field(String fieldName, int field) {
+        fields.put(fieldName, field);
+    }
+
+    private int field(String fieldName) {
+        Integer field = fields.get(fieldName);
+        return field != null ? field : UNKNOWN;
+    }
+
+    /**
+     * Parses the query or filter the parser is positioned on.
+     */
+    protected abstract T parseInner(QueryParseContext parseContext) throws IOException;
+
+    /**
+     * Builds a buffered branch, possibly lazily if allowed by {@link #lazyBranches}.
+     */
+    protected abstract T parseBranch(Indices2416Branch branch, QueryParseContext parseContext, boolean lazy) throws IOException;
+
+    /**
+     * Called with the parser positioned on the clause object, returns whether the branch chosen for the current
+     * index may be built lazily. It then gets buffered even when the indices come first. Defaults to <tt>false</tt>.
+     */
+    protected boolean lazyBranches(QueryParseContext parseContext) {
+        return false;
+    }
+
+    protected abstract T matchAll();
+
+    protected abstract T matchNone();
+
+    /**
+     * Returns the given branch restricted to the documents matching the given filter.
+     */
+    protected abstract T filtered(T branch, Filter filter);
+
+    /**
+     * Called with the branch chosen for the current index, and the common options of the clause. Returns what the
+     * clause parses to.
+     */
+    protected abstract T chosen(QueryParseContext parseContext, T chosen, @Nullable Indices2416Branch source, @Nullable String name,
+                                boolean cache, @Nullable CacheKeyFilter.Key cacheKey);
+
+    /**
+     * Returns a copy of a cached parsed clause that the caller may modify. Defaults to the given clause itself.
+     */
+    protected T copy(T parsed) {
+        return parsed;
+    }
+
+    /**
+     * Parses an <tt>indices2416</tt> or <tt>indices2416_switch</tt> clause, reusing what a byte identical clause
+     * parsed to for the current index when the {@link Indices2416TemplateCache} is enabled.
+     */
+    @SuppressWarnings("unchecked")
+    final T parseCached(QueryParseContext parseContext, boolean switchClause) throws IOException, QueryParsingException {
+        if (!templateCache.enabled()) {
+            return switchClause ? parseSwitch(parseContext) : parseIndices(parseContext);
+        }
+        String index = parseContext.index().name();
+        Indices2416Branch clause = Indices2416Branch.buffer(parseContext.parser());
+        Indices2416TemplateCache.Key key = templateCache.key(clauseName + ":" + kind, clause.source());
+        Indices2416TemplateCache.Template template = templateCache.get(index, key);
+        if (template != null) {
+            Indices2416Stats.IndexStats stats = this.stats.index(index);
+            stats.clause();
+            stats.templateHit();
+            for (Map.Entry<String, Filter> entry : template.namedFilters().entrySet()) {
+                parseContext.addNamedFilter(entry.getKey(), entry.getValue());
+            }
+            return copy((T) template.parsed());
+        }
+        XContentParser parser = XContentHelper.createParser(clause.source());
+        try {
+            // a sibling context collects the named filters of this very clause
+            QueryParseContext context = new QueryParseContext(parseContext.index(), parseContext.indexQueryParser);
+            context.reset(parser);
+            parser.nextToken();
+            T parsed = switchClause ? parseSwitch(context) : parseIndices(context);
+            ImmutableMap<String, Filter> namedFilters = context.copyNamedFilters();
+            for (Map.Entry<String, Filter> entry : namedFilters.entrySet()) {
+                parseContext.addNamedFilter(entry.getKey(), entry.getValue());
+            }
+            if (parsed != null && Indices2416TemplateCache.cacheable(clause.source())) {
+                templateCache.put(index, key, new Indices2416TemplateCache.Template(parsed, namedFilters));
+                return copy(parsed);
+            }
+            return parsed;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Parses an <tt>indices2416</tt> clause, made of <tt>indices</tt> (or <tt>index</tt>), a branch and a no match
+     * branch.
+     */
+    final T parseIndices(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        long start = System.nanoTime();
+        XContentParser parser = parseContext.parser();
+        Indices2416Stats.IndexStats stats = this.stats.index(parseContext.index().name());
+        stats.clause();
+
+        T branch = null;
+        Indices2416Branch deferredBranch = null;
+        T noMatchBranch = matchAll();
+        Indices2416Branch deferredNoMatchBranch = null;
+        boolean branchFound = false;
+        boolean indicesFound = false;
+        boolean branchBeforeIndices = false;
+        boolean currentIndexMatchesIndices = false;
+        Indices2416Patterns indices = null;
+        Indices2416ResolutionCache.Decision decision = null;
+        boolean aliasFilters = false;
+        String name = null;
+        boolean cache = false;
+        CacheKeyFilter.Key cacheKey = null;
+        boolean lazy = lazyBranches(parseContext);
+        Enclosing enclosing = enclosing(parser);
+        boolean profile = false;
+        long resolveNanos = 0;
+        boolean folded = false;
+        boolean skipped = false;
+        int slot = enclosing != null ? 1 - enclosing.indices.slot() : 0;
+
+        String currentFieldName = null;
+        int field = UNKNOWN;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+                field = field(currentFieldName);
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                switch (field) {
+                    case BRANCH:
+                        // once the indices are known the branch gets skipped or parsed, before them it gets buffered when
+                        // parsing is deferred and parsed otherwise, whether it applies or not
+                        branchFound = true;
+                        if (indicesFound && !currentIndexMatchesIndices) {
+                            parser.skipChildren(); // skip the branch object without parsing it
+                            stats.branchSkipped();
+                            skipped = true;
+                        } else if (!indicesFound && deferParsing) {
+                            branchBeforeIndices = true;
+                            deferredBranch = Indices2416Branch.buffer(parser); // parse it once we know whether it applies
+                        } else if (indicesFound && lazy) {
+                            deferredBranch = Indices2416Branch.buffer(parser); // it applies, but may be built later on
+                        } else if (indicesFound) {
+                            branch = parseEnclosed(parseContext, indices, decision);
+                            stats.branchParsed();
+                        } else {
+                            branchBeforeIndices = true;
+                            enclosing = null; // clauses within the branch may reuse the indices buffer of the enclosing clause
+                            branch = parseInner(parseContext);
+                            stats.branchParsed();
+                        }
+                        break;
+                    case NO_MATCH_BRANCH:
+                        if (indicesFound && currentIndexMatchesIndices) {
+                            parser.skipChildren(); // skip the branch object without parsing it
+                            stats.branchSkipped();
+                            skipped = true;
+                        } else if (!indicesFound && deferParsing) {
+                            branchBeforeIndices = true;
+                            deferredNoMatchBranch = Indices2416Branch.buffer(parser); // parse it once we know whether it applies
+                        } else if (indicesFound && lazy) {
+                            deferredNoMatchBranch = Indices2416Branch.buffer(parser); // it applies, but may be built later on
+                        } else if (indicesFound) {
+                            noMatchBranch = parseEnclosed(parseContext, indices, decision);
+                            stats.branchParsed();
+                        } else {
+                            branchBeforeIndices = true;
+                            enclosing = null; // clauses within the branch may reuse the indices buffer of the enclosing clause
+                            noMatchBranch = parseInner(parseContext);
+                            stats.branchParsed();
+                        }
+                        break;
+                    default:
+                        throw unsupported(parseContext, currentFieldName);
+                }
+            } else if ((token == XContentParser.Token.START_ARRAY && field == INDICES) || (token.isValue() && field == INDEX)) {
+                if (indicesFound) {
+                    throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] indices or index already specified");
+                }
+                indicesFound = true;
+                indices = token == XContentParser.Token.START_ARRAY ? readIndices(parseContext, slot) : readIndex(parser, slot);
+                long resolveStart = System.nanoTime();
+                decision = enclosing != null ? enclosing.fold(indices) : null;
+                if (decision != null) {
+                    stats.nestedFolded();
+                    folded = true;
+                } else {
+                    decision = decide(stats, parseContext, indices);
+                }
+                resolveNanos = System.nanoTime() - resolveStart;
+                currentIndexMatchesIndices = decision.matches();
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                throw unsupported(parseContext, currentFieldName);
+            } else if (token.isValue()) {
+                switch (field) {
+                    case NO_MATCH_BRANCH:
+                        noMatchBranch = constant(parser.text(), noMatchBranch);
+                        break;
+                    case ALIAS_FILTERS:
+                        aliasFilters = parser.booleanValue();
+                        break;
+                    case PROFILE:
+                        profile = parser.booleanValue();
+                        break;
+                    case NAME:
+                        name = parser.text();
+                        break;
+                    case CACHE:
+                        cache = parser.booleanValue();
+                        break;
+                    case CACHE_KEY:
+                        cacheKey = new CacheKeyFilter.Key(parser.text());
+                        break;
+                    default:
+                        throw unsupported(parseContext, currentFieldName);
+                }
+            }
+        }
+        if (!branchFound) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] requires '" + kind + "' element");
+        }
+        if (!indicesFound) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] requires 'indices' or 'index' element");
+        }
+
+        if (branchBeforeIndices) {
+            stats.indicesAfterBranch();
+        }
+
+        if (currentIndexMatchesIndices) {
+            countDeferred(stats, deferredBranch, deferredNoMatchBranch);
+            T chosen = deferredBranch != null ? parseBranch(deferredBranch, parseContext, lazy) : branch;
+            chosen = chosen(parseContext, chosen, deferredBranch, name, cache, cacheKey);
+            if (aliasFilters && chosen != null && decision.filteringAliases() != null) {
+                // the current index only is part of the indices through filtered aliases, apply them as a search would
+                chosen = filtered(chosen, aliasFilter(parseContext, decision.filteringAliases()));
+            }
+            if (profile) {
+                profile(parseContext, start, resolveNanos, folded, decision, name, kind, skipped || deferredNoMatchBranch != null);
+            }
+            return chosen;
+        }
+        countDeferred(stats, deferredNoMatchBranch, deferredBranch);
+        T chosen = deferredNoMatchBranch != null ? parseBranch(deferredNoMatchBranch, parseContext, lazy) : noMatchBranch;
+        chosen = chosen(parseContext, chosen, deferredNoMatchBranch, name, cache, cacheKey);
+        if (profile) {
+            profile(parseContext, start, resolveNanos, folded, decision, name, "no_match_" + kind, skipped || deferredBranch != null);
+        }
+        return chosen;
+    }
+
+    /**
+     * Parses an <tt>indices2416_switch</tt> clause, made of an ordered list of <tt>cases</tt>, each with
+     * <tt>indices</tt> (or <tt>index</tt>) and a branch, and a <tt>default</tt> branch. Only the branch of the
+     * first case matching the current index gets parsed.
+     * <p/>
+     * A case branch appearing before the indices of its case, and a default appearing before the cases, are
+     * buffered until we know whether they apply.
+     */
+    final T parseSwitch(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+        Indices2416Stats.IndexStats stats = this.stats.index(parseContext.index().name());
+        stats.clause();
+
+        T chosen = null;
+        Indices2416Branch chosenSource = null;
+        boolean caseMatched = false;
+        boolean casesFound = false;
+        T defaultBranch = matchAll();
+        Indices2416Branch deferredDefaultBranch = null;
+        boolean branchBeforeIndices = false;
+        String name = null;
+        boolean cache = false;
+        CacheKeyFilter.Key cacheKey = null;
+        boolean lazy = lazyBranches(parseContext);
+
+        String currentFieldName = null;
+        int field = UNKNOWN;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+                field = field(currentFieldName);
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (field != CASES) {
+                    throw unsupported(parseContext, currentFieldName);
+                }
+                if (casesFound) {
+                    throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] cases already specified");
+                }
+                casesFound = true;
+                while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    if (token != XContentParser.Token.START_OBJECT) {
+                        throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] cases must be objects");
+                    }
+                    if (caseMatched) {
+                        parser.skipChildren(); // an earlier case won, skip this one without parsing it
+                        stats.branchSkipped();
+                        continue;
+                    }
+
+                    T caseBranch = null;
+                    Indices2416Branch deferredCaseBranch = null;
+                    boolean caseBranchFound = false;
+                    boolean caseIndicesFound = false;
+                    boolean currentIndexMatchesIndices = false;
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                        if (token == XContentParser.Token.FIELD_NAME) {
+                            currentFieldName = parser.currentName();
+                            field = field(currentFieldName);
+                        } else if (token == XContentParser.Token.START_OBJECT && field == BRANCH) {
+                            caseBranchFound = true;
+                            if (caseIndicesFound && !currentIndexMatchesIndices) {
+                                parser.skipChildren(); // skip the branch object without parsing it
+                                stats.branchSkipped();
+                            } else if (!caseIndicesFound) {
+                                branchBeforeIndices = true;
+                                deferredCaseBranch = Indices2416Branch.buffer(parser); // parse it once we know whether it applies
+                            } else {
+                                caseBranch = parseInner(parseContext);
+                                stats.branchParsed();
+                            }
+                        } else if ((token == XContentParser.Token.START_ARRAY && field == INDICES) || (token.isValue() && field == INDEX)) {
+                            if (caseIndicesFound) {
+                                throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] indices or index already specified");
+                            }
+                            caseIndicesFound = true;
+                            Indices2416Patterns indices = token == XContentParser.Token.START_ARRAY ? readIndices(parseContext, 0) : readIndex(parser, 0);
+                            currentIndexMatchesIndices = decide(stats, parseContext, indices).matches();
+                        } else {
+                            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] case does not support [" + currentFieldName + "]");
+                        }
+                    }
+                    if (!caseBranchFound) {
+                        throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] case requires '" + kind + "' element");
+                    }
+                    if (!caseIndicesFound) {
+                        throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] case requires 'indices' or 'index' element");
+                    }
+                    if (currentIndexMatchesIndices) {
+                        caseMatched = true;
+                        if (deferredCaseBranch != null) {
+                            chosen = parseBranch(deferredCaseBranch, parseContext, lazy);
+                            chosenSource = deferredCaseBranch;
+                            stats.branchParsed();
+                        } else {
+                            chosen = caseBranch;
+                        }
+                    } else if (deferredCaseBranch != null) {
+                        stats.branchSkipped();
+                    }
+                }
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if (field != DEFAULT) {
+                    throw unsupported(parseContext, currentFieldName);
+                }
+                if (caseMatched) {
+                    parser.skipChildren(); // skip the branch object without parsing it
+                    stats.branchSkipped();
+                } else if (!casesFound) {
+                    deferredDefaultBranch = Indices2416Branch.buffer(parser); // parse it once we know whether a case matches
+                } else {
+                    defaultBranch = parseInner(parseContext);
+                    stats.branchParsed();
+                }
+            } else if (token.isValue()) {
+                switch (field) {
+                    case DEFAULT:
+                        defaultBranch = constant(parser.text(), defaultBranch);
+                        break;
+                    case NAME:
+                        name = parser.text();
+                        break;
+                    case CACHE:
+                        cache = parser.booleanValue();
+                        break;
+                    case CACHE_KEY:
+                        cacheKey = new CacheKeyFilter.Key(parser.text());
+                        break;
+                    default:
+                        throw unsupported(parseContext, currentFieldName);
+                }
+            }
+        }
+        if (!casesFound) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] requires 'cases' element");
+        }
+
+        if (branchBeforeIndices) {
+            stats.indicesAfterBranch();
+        }
+
+        if (!caseMatched) {
+            if (deferredDefaultBranch != null) {
+                chosen = parseBranch(deferredDefaultBranch, parseContext, lazy);
+                chosenSource = deferredDefaultBranch;
+                stats.branchParsed();
+            } else {
+                chosen = defaultBranch;
+            }
+        } else if (deferredDefaultBranch != null) {
+            stats.branchSkipped();
+        }
+        return chosen(parseContext, chosen, chosenSource, name, cache, cacheKey);
+    }
+
+    /**
+     * Returns the branch the <tt>all</tt> or <tt>none</tt> constant stands for, or the given one for any other value.
+     */
+    private T constant(String type, T branch) {
+        if ("all".equals(type)) {
+            return matchAll();
+        } else if ("none".equals(type)) {
+            return matchNone();
+        }
+        return branch;
+    }
+
+    private Indices2416Patterns readIndices(QueryParseContext parseContext, int slot) throws IOException {
+        XContentParser parser = parseContext.parser();
+        Indices2416Patterns indices = Indices2416Patterns.current(slot);
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+            if (token == XContentParser.Token.VALUE_NULL) {
+                throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] no value specified for 'indices' entry");
+            }
+            if (token == XContentParser.Token.START_OBJECT) {
+                indices.add(readDateRange(parseContext));
+            } else {
+                indices.add(parser);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Reads a date range entry of the indices, whose bounds may use date math, and returns it resolved against the
+     * current time.
+     */
+    private String readDateRange(QueryParseContext parseContext) throws IOException {
+        XContentParser parser = parseContext.parser();
+        String prefix = null;
+        String format = DEFAULT_DATE_FORMAT;
+        String from = null;
+        String to = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue() && "prefix".equals(currentFieldName)) {
+                prefix = parser.text();
+            } else if (token.isValue() && "format".equals(currentFieldName)) {
+                format = parser.text();
+            } else if (token.isValue() && ("from".equals(currentFieldName) || "gte".equals(currentFieldName))) {
+                from = parser.textOrNull();
+            } else if (token.isValue() && ("to".equals(currentFieldName) || "lte".equals(currentFieldName))) {
+                to = parser.textOrNull();
+            } else {
+                throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] indices date range does not support [" + currentFieldName + "]");
+            }
+        }
+        if (prefix == null) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] indices date range requires 'prefix' element");
+        }
+        if (from == null && to == null) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] indices date range requires 'from' or 'to' element");
+        }
+        try {
+            return Indices2416IndicesMatcher.DateRange.entry(prefix, format, from, to, System.currentTimeMillis());
+        } catch (ElasticSearchParseException e) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] failed to parse indices date range", e);
+        } catch (IllegalArgumentException e) {
+            throw new QueryParsingException(parseContext.index(), "[" + clauseName + "] failed to parse indices date range", e);
+        }
+    }
+
+    private static Indices2416Patterns readIndex(XContentParser parser, int slot) throws IOException {
+        Indices2416Patterns indices = Indices2416Patterns.current(slot);
+        indices.add(parser);
+        return indices;
+    }
+
+    private QueryParsingException unsupported(QueryParseContext parseContext, String fieldName) {
+        return new QueryParsingException(parseContext.index(), "[" + clauseName + "] " + kind + " does not support [" + fieldName + "]");
+    }
+
+    private static void countDeferred(Indices2416Stats.IndexStats stats, Indices2416Branch chosen, Indices2416Branch other) {
+        if (chosen != null) {
+            stats.branchParsed();
+        }
+        if (other != null) {
+            stats.branchSkipped();
+        }
+    }
+
+    private Filter aliasFilter(QueryParseContext parseContext, String[] filteringAliases) {
+        Filter filter = indicesService.indexServiceSafe(parseContext.index().name()).aliasesService().aliasFilter(filteringAliases);
+        return parseContext.cacheFilter(filter, null);
+    }
+
+    /**
+     * Parses a branch whose clause already got its indices decided, letting a clause directly nested within it
+     * decide its own indices from them.
+     */
+    private T parseEnclosed(QueryParseContext parseContext, Indices2416Patterns indices, Indices2416ResolutionCache.Decision decision) throws IOException {
+        Enclosing previous = ENCLOSING.get();
+        ENCLOSING.set(new Enclosing(kind, JsonXContentNesting.current(parseContext.parser()), indices, decision));
+        try {
+            return parseInner(parseContext);
+        } finally {
+            ENCLOSING.set(previous);
+        }
+    }
+
+    /**
+     * Returns the branch the clause the parser is positioned on is directly nested within, if any, and forgets it
+     * so that no other clause within the same branch gets to use it.
+     */
+    @Nullable
+    private Enclosing enclosing(XContentParser parser) {
+        Enclosing enclosing = ENCLOSING.get();
+        if (enclosing == null || !kind.equals(enclosing.kind) || enclosing.context == null
+                || enclosing.context != JsonXContentNesting.parent(parser)) {
+            return null;
+        }
+        ENCLOSING.set(null);
+        return enclosing;
+    }
+
+    /**
+     * Records the profile of a clause once parsed, wherever its <tt>profile</tt> option appeared.
+     */
+    private void profile(QueryParseContext parseContext, long start, long resolveNanos, boolean folded, Indices2416ResolutionCache.Decision decision,
+                         @Nullable String name, String branch, boolean skipped) {
+        Indices2416Profile.Clause profile = new Indices2416Profile.Clause(kind, start);
+        // looked up after the fact, as it costs compiling each of the indices on its own
+        profile.resolved(resolveNanos, folded, resolutionCache.matchedEntry(parseContext.index().name(), decision));
+        profile.parsed(name, branch, skipped, System.nanoTime());
+        Indices2416Profile.record(profile);
+    }
+
+    protected Indices2416ResolutionCache.Decision decide(Indices2416Stats.IndexStats stats, QueryParseContext parseContext, Indices2416Patterns indices) {
+        long start = System.nanoTime();
+        Indices2416ResolutionCache.Decision decision = resolutionCache.decide(parseContext.index().name(), indices);
+        stats.resolution(System.nanoTime() - start);
+        return decision;
+    }
+
+    /**
+     * A branch of an <tt>indices2416</tt> clause being parsed, along with the indices of the clause and the decision
+     * they led to.
+     */
+    private static final class Enclosing {
+
+        private final String kind;
+
+        /**
+         * Identity of the branch object, as given by {@link JsonXContentNesting#current}.
+         */
+        @Nullable
+        private final Object context;
+
+        private final Indices2416Patterns indices;
+
+        private final Indices2416ResolutionCache.Decision decision;
+
+        private Enclosing(String kind, @Nullable Object context, Indices2416Patterns indices, Indices2416ResolutionCache.Decision decision) {
+            this.kind = kind;
+            this.context = context;
+            this.indices = indices;
+            this.decision = decision;
+        }
+
+        /**
+         * Returns the decision the given indices of a directly nested clause lead to, or <tt>null</tt> if it does not
+         * follow from the enclosing one. It does when the enclosing decision implies it: the same indices, more
+         * indices than an enclosing clause the current index matched directly, or fewer indices than an enclosing
+         * clause it did not match. Exclusions, and lists standing for all the indices, make no such implication
+         * hold, and are left to the resolution.
+         */
+        @Nullable
+        Indices2416ResolutionCache.Decision fold(Indices2416Patterns nested) {
+            if (nested.sameAs(indices)) {
+                return decision;
+            }
+            if (nested.hasExclusions() || indices.hasExclusions() || nested.isAll() || indices.isAll()) {
+                return null; // an empty list is part of any other, yet stands for all the indices
+            }
+            if (decision.matches()) {
+                // matching directly one of the enclosing indices, the current index matches any list holding it
+                return decision.filteringAliases() == null && nested.containsAll(indices) ? decision : null;
+            }
+            return indices.containsAll(nested) ? Indices2416ResolutionCache.Decision.NO_MATCH : null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reusable, per thread, buffer holding the <tt>indices</tt> of the <tt>indices2416</tt> clause being parsed, so
+ * that reading them and looking them up in the {@link Indices2416ResolutionCache} does not allocate.
+ * <p/>
+ * The buffer is only valid until the next clause of the same thread reads its own indices. This is fine as the
+ * indices of a clause are resolved as soon as they have been read, before any nested clause gets parsed. A clause
+ * directly nested within another one reads its indices into the other buffer of the thread, so that they can be
+ * compared to those of the enclosing clause.
+ */
+final class Indices2416Patterns {
+
+    private static final ThreadLocal<Indices2416Patterns[]> CURRENT = new ThreadLocal<Indices2416Patterns[]>() {
+        @Override
+        protected Indices2416Patterns[] initialValue() {
+            return new Indices2416Patterns[]{new Indices2416Patterns(0), new Indices2416Patterns(1)};
+        }
+    };
+
+    private static final int INTERNED_SIZE = 1024;
+
+    /**
+     * Pattern strings seen so far, indexed by hash. Races only lead to extra strings being created, a string being
+     * immutable any slot read is a valid one.
+     */
+    private static final String[] INTERNED = new String[INTERNED_SIZE];
+
+    private String[] patterns = new String[8];
+
+    private int size;
+
+    private int hash;
+
+    private final int slot;
+
+    private Indices2416Patterns(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Returns the first empty buffer of the current thread.
+     */
+    static Indices2416Patterns current() {
+        return current(0);
+    }
+
+    /**
+     * Returns the given empty buffer, either <tt>0</tt> or <tt>1</tt>, of the current thread.
+     */
+    static Indices2416Patterns current(int slot) {
+        Indices2416Patterns patterns = CURRENT.get()[slot];
+        patterns.size = 0;
+        patterns.hash = 1;
+        return patterns;
+    }
+
+    /**
+     * Adds the value the parser is positioned on, reusing the string of a previous identical value if any.
+     */
+    void add(XContentParser parser) throws IOException {
+        add(intern(parser.textCharacters(), parser.textOffset(), parser.textLength()));
+    }
+
+    void add(String pattern) {
+        if (size == patterns.length) {
+            patterns = Arrays.copyOf(patterns, size << 1);
+        }
+        patterns[size++] = pattern;
+        hash = 31 * hash + pattern.hashCode();
+    }
+
+    /**
+     * Returns the buffer, <tt>0</tt> or <tt>1</tt>, this one is.
+     */
+    int slot() {
+        return slot;
+    }
+
+    /**
+     * Whether both buffers hold the same patterns, in the same order.
+     */
+    boolean sameAs(Indices2416Patterns other) {
+        if (size != other.size || hash != other.hash) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!patterns[i].equals(other.patterns[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether each of the patterns of the other buffer is one of these.
+     */
+    boolean containsAll(Indices2416Patterns other) {
+        outer:
+        for (int i = 0; i < other.size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (patterns[j].equals(other.patterns[i])) {
+                    continue outer;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the patterns stand for all the indices as a whole, being none at all or <tt>_all</tt> alone.
+     */
+    boolean isAll() {
+        return size == 0 || (size == 1 && "_all".equals(patterns[0]));
+    }
+
+    /**
+     * Whether some of the patterns are exclusions.
+     */
+    boolean hasExclusions() {
+        for (int i = 0; i < size; i++) {
+            if (patterns[i].startsWith("-")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String[] array() {
+        return patterns;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Same as {@link Arrays#hashCode(Object[])} of the patterns.
+     */
+    int patternsHashCode() {
+        return hash;
+    }
+
+    String[] toArray() {
+        return Arrays.copyOf(patterns, size);
+    }
+
+    static String intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (INTERNED_SIZE - 1);
+        String interned = INTERNED[slot];
+        if (interned != null && interned.length() == length) {
+            int i = 0;
+            while (i < length && interned.charAt(i) == chars[offset + i]) {
+                i++;
+            }
+            if (i == length) {
+                return interned;
+            }
+        }
+        interned = new String(chars, offset, length);
+        INTERNED[slot] = interned;
+        return interned;
+    }
+}
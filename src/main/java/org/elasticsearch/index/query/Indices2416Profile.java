@@ -0,0 +1,235 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Profiles of the <tt>indices2416</tt> clauses having the <tt>profile</tt> option set, kept per search context
+ * for the <tt>indices2416_profile</tt> facets of the search to report them.
+ * <p/>
+ * Search contexts are weakly referenced, so that the profiles go away along with their search, whether it asked
+ * for the facet or not.
+ */
+public class Indices2416Profile {
+
+    private static final ConcurrentMap<SearchContext, List<Clause>> CONTEXTS = CacheBuilder.newBuilder().weakKeys().<SearchContext, List<Clause>>build().asMap();
+
+    private Indices2416Profile() {
+    }
+
+    /**
+     * Records the profile of a clause parsed within the current search context, if any.
+     */
+    static void record(Clause clause) {
+        SearchContext context = SearchContext.current();
+        if (context == null) {
+            // not parsing a search request, nothing would ever report it
+            return;
+        }
+        List<Clause> clauses = CONTEXTS.get(context);
+        if (clauses == null) {
+            clauses = new CopyOnWriteArrayList<Clause>();
+            List<Clause> existing = CONTEXTS.putIfAbsent(context, clauses);
+            if (existing != null) {
+                clauses = existing;
+            }
+        }
+        clauses.add(clause);
+    }
+
+    /**
+     * Returns the profiles of the clauses parsed within the given search context so far, in parsing order.
+     */
+    public static List<Clause> clauses(SearchContext context) {
+        List<Clause> clauses = CONTEXTS.get(context);
+        return clauses != null ? Collections.unmodifiableList(clauses) : Collections.<Clause>emptyList();
+    }
+
+    /**
+     * How an <tt>indices2416</tt> clause got parsed for a shard.
+     */
+    public static class Clause implements Streamable, ToXContent {
+
+        private String kind;
+
+        @Nullable
+        private String name;
+
+        @Nullable
+        private String matched;
+
+        private String branch;
+
+        private boolean skipped;
+
+        private boolean folded;
+
+        private long resolveNanos;
+
+        private long parseNanos;
+
+        private long start;
+
+        Clause() {
+        }
+
+        Clause(String kind, long start) {
+            this.kind = kind;
+            this.start = start;
+        }
+
+        public static Clause readClause(StreamInput in) throws IOException {
+            Clause clause = new Clause();
+            clause.readFrom(in);
+            return clause;
+        }
+
+        /**
+         * Either <tt>query</tt> or <tt>filter</tt>.
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * The <tt>_name</tt> of the clause, if any.
+         */
+        @Nullable
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The first of the indices, aliases, patterns or ranges of the clause matching the index of the shard, not
+         * counting exclusions, or <tt>null</tt> if there is none.
+         */
+        @Nullable
+        public String getMatched() {
+            return matched;
+        }
+
+        /**
+         * The field holding the branch chosen for the index of the shard, like <tt>query</tt> or
+         * <tt>no_match_query</tt>.
+         */
+        public String getBranch() {
+            return branch;
+        }
+
+        /**
+         * Whether the other branch got skipped, or discarded once buffered, without being parsed.
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Whether the clause got its outcome from the clause it is directly nested within, without resolving its
+         * indices.
+         */
+        public boolean isFolded() {
+            return folded;
+        }
+
+        /**
+         * Nanoseconds spent deciding whether the index of the shard matches the indices of the clause.
+         */
+        public long getResolveNanos() {
+            return resolveNanos;
+        }
+
+        /**
+         * Nanoseconds spent parsing the rest of the clause, which includes building the chosen branch and skipping
+         * the other one.
+         */
+        public long getParseNanos() {
+            return parseNanos;
+        }
+
+        void resolved(long nanos, boolean folded, @Nullable String matched) {
+            this.resolveNanos = nanos;
+            this.folded = folded;
+            this.matched = matched;
+        }
+
+        void parsed(@Nullable String name, String branch, boolean skipped, long end) {
+            this.name = name;
+            this.branch = branch;
+            this.skipped = skipped;
+            this.parseNanos = Math.max(0, end - start - resolveNanos);
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            kind = in.readString();
+            name = in.readOptionalString();
+            matched = in.readOptionalString();
+            branch = in.readString();
+            skipped = in.readBoolean();
+            folded = in.readBoolean();
+            resolveNanos = in.readVLong();
+            parseNanos = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(kind);
+            out.writeOptionalString(name);
+            out.writeOptionalString(matched);
+            out.writeString(branch);
+            out.writeBoolean(skipped);
+            out.writeBoolean(folded);
+            out.writeVLong(resolveNanos);
+            out.writeVLong(parseNanos);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("kind", kind);
+            if (name != null) {
+                builder.field("_name", name);
+            }
+            builder.field("matched", matched);
+            builder.field("branch", branch);
+            builder.field("skipped", skipped);
+            builder.field("folded", folded);
+            builder.field("resolve_time_in_nanos", resolveNanos);
+            builder.field("parse_time_in_nanos", parseNanos);
+            builder.endObject();
+            return builder;
+        }
+    }
+}
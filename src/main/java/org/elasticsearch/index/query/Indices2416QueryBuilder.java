@@ -19,9 +19,12 @@
 
 package org.elasticsearch.index.query;
 
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A query that will execute the wrapped query only for the specified indices, and "match_all" when
@@ -33,16 +36,61 @@ public class Indices2416QueryBuilder extends BaseQueryBuilder {
 
     private final String[] indices;
 
+    private List<String> indicesRanges;
+
+    private List<String[]> indicesDateRanges;
+
+    private String[] excludedIndices;
+
     private String sNoMatchQuery;
     private QueryBuilder noMatchQuery;
 
     private String queryName;
 
+    private Boolean aliasFilters;
+
+    private Boolean profile;
+
     public Indices2416QueryBuilder(QueryBuilder queryBuilder, String... indices) {
         this.queryBuilder = queryBuilder;
         this.indices = indices;
     }
 
+    /**
+     * Adds the indices whose names are between the given ones, both included, without listing them all. Names
+     * are compared lexicographically, zero padded dates or numbers of the same length can thus be used.
+     */
+    public Indices2416QueryBuilder indicesRange(String from, String to) {
+        if (indicesRanges == null) {
+            indicesRanges = new ArrayList<String>();
+        }
+        indicesRanges.add(from + ".." + to);
+        return this;
+    }
+
+    /**
+     * Adds the indices made of the given prefix followed by a date in the given format, <tt>yyyy.MM.dd</tt> if
+     * <tt>null</tt>, whose date is between the given bounds, both included. Bounds can use date math, like
+     * <tt>now-7d/d</tt>, either of them can be <tt>null</tt> for a range open on that side.
+     */
+    public Indices2416QueryBuilder indicesDateRange(String prefix, @Nullable String format, @Nullable String from, @Nullable String to) {
+        if (indicesDateRanges == null) {
+            indicesDateRanges = new ArrayList<String[]>();
+        }
+        indicesDateRanges.add(new String[]{prefix, format, from, to});
+        return this;
+    }
+
+    /**
+     * Sets the indices, aliases or wildcard patterns to leave out of the specified indices. They come last in the
+     * list, so that they apply to all of them. If no index has been specified, all the indices but the excluded ones
+     * apply.
+     */
+    public Indices2416QueryBuilder excludeIndices(String... excludedIndices) {
+        this.excludedIndices = excludedIndices;
+        return this;
+    }
+
     /**
      * Sets the no match query, can either be <tt>all</tt> or <tt>none</tt>.
      */
@@ -67,10 +115,66 @@ public class Indices2416QueryBuilder extends BaseQueryBuilder {
         return this;
     }
 
+    /**
+     * Sets whether, when the index it executes on only matches the indices provided through filtered aliases, the
+     * filters of these aliases should be applied to the chosen query. Defaults to <tt>false</tt>.
+     */
+    public Indices2416QueryBuilder aliasFilters(boolean aliasFilters) {
+        this.aliasFilters = aliasFilters;
+        return this;
+    }
+
+    /**
+     * Sets whether to report how the query got parsed for each shard, through the <tt>indices2416_profile</tt> facet.
+     * Defaults to <tt>false</tt>.
+     */
+    public Indices2416QueryBuilder profile(boolean profile) {
+        this.profile = profile;
+        return this;
+    }
+
     @Override
     protected void doXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject(Indices2416QueryParser.NAME);
-        builder.field("indices", indices);
+        if (profile != null) {
+            // first, so that the whole clause gets measured
+            builder.field("profile", profile);
+        }
+        if (indicesRanges == null && indicesDateRanges == null && excludedIndices == null) {
+            builder.field("indices", indices);
+        } else {
+            builder.startArray("indices");
+            for (String index : indices) {
+                builder.value(index);
+            }
+            if (indicesRanges != null) {
+                for (String indicesRange : indicesRanges) {
+                    builder.value(indicesRange);
+                }
+            }
+            if (indicesDateRanges != null) {
+                for (String[] indicesDateRange : indicesDateRanges) {
+                    builder.startObject();
+                    builder.field("prefix", indicesDateRange[0]);
+                    if (indicesDateRange[1] != null) {
+                        builder.field("format", indicesDateRange[1]);
+                    }
+                    if (indicesDateRange[2] != null) {
+                        builder.field("from", indicesDateRange[2]);
+                    }
+                    if (indicesDateRange[3] != null) {
+                        builder.field("to", indicesDateRange[3]);
+                    }
+                    builder.endObject();
+                }
+            }
+            if (excludedIndices != null) {
+                for (String excludedIndex : excludedIndices) {
+                    builder.value("-" + excludedIndex);
+                }
+            }
+            builder.endArray();
+        }
         builder.field("query");
         queryBuilder.toXContent(builder, params);
         if (noMatchQuery != null) {
@@ -79,6 +183,9 @@ public class Indices2416QueryBuilder extends BaseQueryBuilder {
         } else if (sNoMatchQuery != null) {
             builder.field("no_match_query", sNoMatchQuery);
         }
+        if (aliasFilters != null) {
+            builder.field("alias_filters", aliasFilters);
+        }
         if (queryName != null) {
             builder.field("_name", queryName);
         }
@@ -19,32 +19,46 @@
 
 package org.elasticsearch.index.query;
 
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.Query;
-import org.elasticsearch.action.support.IgnoreIndices;
-import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.lucene.search.MatchNoDocsQuery;
 import org.elasticsearch.common.lucene.search.Queries;
-import org.elasticsearch.common.regex.Regex;
-import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.lucene.search.XConstantScoreQuery;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.json.JsonXContentNesting;
+import org.elasticsearch.index.cache.filter.support.CacheKeyFilter;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.search.internal.SearchContext;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
 
 /**
  */
-public class Indices2416QueryParser implements QueryParser {
+public class Indices2416QueryParser extends Indices2416ParseEngine<Query> implements QueryParser {
 
     public static final String NAME = "indices2416";
 
-    @Nullable
-    private final ClusterService clusterService;
+    /**
+     * Whether to build the chosen branch of a clause making the whole query of a search only when the searcher
+     * rewrites the query, rather than while parsing.
+     */
+    public static final String LAZY_BRANCHES = "indices2416.lazy_branches";
+
+    private final boolean lazyBranches;
 
     @Inject
-    public Indices2416QueryParser(@Nullable ClusterService clusterService) {
-        this.clusterService = clusterService;
+    public Indices2416QueryParser(Settings settings, Indices2416ResolutionCache resolutionCache, Indices2416Stats stats,
+                                  IndicesService indicesService, Indices2416TemplateCache templateCache) {
+        super("indices", "query", resolutionCache, stats, indicesService, templateCache, settings.getAsBoolean(DEFER_PARSING, false));
+        this.lazyBranches = settings.getAsBoolean(LAZY_BRANCHES, false);
     }
 
     @Override
@@ -54,103 +68,113 @@ public class Indices2416QueryParser implements QueryParser {
 
     @Override
     public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
-        XContentParser parser = parseContext.parser();
-
-        Query query = null;
-        Query noMatchQuery = Queries.newMatchAllQuery();
-        boolean queryFound = false;
-        boolean indicesFound = false;
-        boolean currentIndexMatchesIndices = false;
-        String queryName = null;
-
-        String currentFieldName = null;
-        XContentParser.Token token;
-        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
-            if (token == XContentParser.Token.FIELD_NAME) {
-                currentFieldName = parser.currentName();
-            } else if (token == XContentParser.Token.START_OBJECT) {
-                if ("query".equals(currentFieldName)) {
-                    //TODO We are able to decide whether to parse the query or not only if indices in the query appears first
-                    queryFound = true;
-                    if (indicesFound && !currentIndexMatchesIndices) {
-                        parseContext.parser().skipChildren(); // skip the query object without parsing it
-                    } else {
-                        query = parseContext.parseInnerQuery();
-                    }
-                } else if ("no_match_query".equals(currentFieldName)) {
-                    if (indicesFound && currentIndexMatchesIndices) {
-                        parseContext.parser().skipChildren(); // skip the query object without parsing it
-                    } else {
-                        noMatchQuery = parseContext.parseInnerQuery();
-                    }
-                } else {
-                    throw new QueryParsingException(parseContext.index(), "[indices] query does not support [" + currentFieldName + "]");
-                }
-            } else if (token == XContentParser.Token.START_ARRAY) {
-                if ("indices".equals(currentFieldName)) {
-                    if (indicesFound) {
-                        throw  new QueryParsingException(parseContext.index(), "[indices] indices or index already specified");
-                    }
-                    indicesFound = true;
-                    Collection<String> indices = new ArrayList<String>();
-                    while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
-                        String value = parser.textOrNull();
-                        if (value == null) {
-                            throw new QueryParsingException(parseContext.index(), "[indices] no value specified for 'indices' entry");
-                        }
-                        indices.add(value);
-                    }
-                    currentIndexMatchesIndices = matchesIndices(parseContext.index().name(), indices.toArray(new String[indices.size()]));
-                } else {
-                    throw new QueryParsingException(parseContext.index(), "[indices] query does not support [" + currentFieldName + "]");
-                }
-            } else if (token.isValue()) {
-                if ("index".equals(currentFieldName)) {
-                    if (indicesFound) {
-                        throw  new QueryParsingException(parseContext.index(), "[indices] indices or index already specified");
-                    }
-                    indicesFound = true;
-                    currentIndexMatchesIndices = matchesIndices(parseContext.index().name(), parser.text());
-                } else if ("no_match_query".equals(currentFieldName)) {
-                    String type = parser.text();
-                    if ("all".equals(type)) {
-                        noMatchQuery = Queries.newMatchAllQuery();
-                    } else if ("none".equals(type)) {
-                        noMatchQuery = new MatchNoDocsQuery(); //Queries.newMatchNoDocsQuery();
-                    }
-                } else if ("_name".equals(currentFieldName)) {
-                    queryName = parser.text();
-                } else {
-                    throw new QueryParsingException(parseContext.index(), "[indices] query does not support [" + currentFieldName + "]");
-                }
-            }
+        return parseCached(parseContext, false);
+    }
+
+    @Override
+    protected Query parseInner(QueryParseContext parseContext) throws IOException {
+        return parseContext.parseInnerQuery();
+    }
+
+    /**
+     * Only the clause making the whole query of a search may be built lazily: a search finds nothing with a query
+     * parsing to nothing, as with the lazy query of a branch parsing to nothing, whereas an enclosing clause would
+     * ignore it.
+     */
+    @Override
+    protected boolean lazyBranches(QueryParseContext parseContext) {
+        return lazyBranches && SearchContext.current() != null && JsonXContentNesting.rootClause(parseContext.parser(), "query");
+    }
+
+    @Override
+    protected Query parseBranch(Indices2416Branch branch, QueryParseContext parseContext, boolean lazy) throws IOException {
+        if (lazy && !branch.named()) {
+            // named queries must be known once the request is parsed, the others can wait for the searcher
+            return new Indices2416LazyQuery(branch, parseContext);
         }
-        if (!queryFound) {
-            throw new QueryParsingException(parseContext.index(), "[indices] requires 'query' element");
+        return branch.toQuery(parseContext);
+    }
+
+    @Override
+    protected Query copy(Query parsed) {
+        return copyOf(parsed); // enclosing clauses may change its boost, or the boost of the queries it holds
+    }
+
+    @Override
+    protected Query matchAll() {
+        return Queries.newMatchAllQuery();
+    }
+
+    @Override
+    protected Query matchNone() {
+        return new MatchNoDocsQuery(); //Queries.newMatchNoDocsQuery();
+    }
+
+    @Override
+    protected Query filtered(Query branch, Filter filter) {
+        return restrict(branch, filter);
+    }
+
+    /**
+     * Restricts the given query to the documents matching the given filter, short-circuiting the all and none
+     * outcomes so that no document gets iterated over for them.
+     */
+    static Query restrict(Query query, Filter filter) {
+        if (query instanceof MatchNoDocsQuery) {
+            return query;
         }
-        if (!indicesFound) {
-            throw new QueryParsingException(parseContext.index(), "[indices] requires 'indices' or 'index' element");
+        if (Queries.isConstantMatchAllQuery(query)) {
+            return new XConstantScoreQuery(filter);
         }
+        return new XFilteredQuery(query, filter, XFilteredQuery.CUSTOM_FILTER_STRATEGY);
+    }
 
-        Query chosenQuery;
-        if (currentIndexMatchesIndices) {
-            chosenQuery = query;
+    /**
+     * Returns a copy of the given query that can be modified without changing the given one, the queries held by
+     * boolean, disjunction, filtered and constant score queries being copied as well. Filters are shared, as they
+     * are never modified once built.
+     * <p/>
+     * Filtered queries are copied with the filter strategy they default to, as it cannot be read back, which is why
+     * clauses setting another one never get cached.
+     */
+    static Query copyOf(Query query) {
+        Query copy;
+        if (query.getClass() == BooleanQuery.class) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery booleanCopy = new BooleanQuery(booleanQuery.isCoordDisabled());
+            booleanCopy.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                booleanCopy.add(copyOf(clause.getQuery()), clause.getOccur());
+            }
+            copy = booleanCopy;
+        } else if (query.getClass() == DisjunctionMaxQuery.class) {
+            DisjunctionMaxQuery disjunctionMaxQuery = (DisjunctionMaxQuery) query;
+            DisjunctionMaxQuery disjunctionMaxCopy = new DisjunctionMaxQuery(disjunctionMaxQuery.getTieBreakerMultiplier());
+            for (Query disjunct : disjunctionMaxQuery) {
+                disjunctionMaxCopy.add(copyOf(disjunct));
+            }
+            copy = disjunctionMaxCopy;
+        } else if (query.getClass() == XFilteredQuery.class) {
+            XFilteredQuery filteredQuery = (XFilteredQuery) query;
+            copy = new XFilteredQuery(copyOf(filteredQuery.getQuery()), filteredQuery.getFilter(), XFilteredQuery.CUSTOM_FILTER_STRATEGY);
+        } else if (query.getClass() == FilteredQuery.class) {
+            FilteredQuery filteredQuery = (FilteredQuery) query;
+            copy = new FilteredQuery(copyOf(filteredQuery.getQuery()), filteredQuery.getFilter(), filteredQuery.getFilterStrategy());
+        } else if (query.getClass() == ConstantScoreQuery.class && ((ConstantScoreQuery) query).getQuery() != null) {
+            copy = new ConstantScoreQuery(copyOf(((ConstantScoreQuery) query).getQuery()));
         } else {
-            chosenQuery = noMatchQuery;
+            return query.clone();
         }
-        if (queryName != null) {
-            parseContext.addNamedQuery(queryName, chosenQuery);
-        }
-        return chosenQuery;
+        copy.setBoost(query.getBoost());
+        return copy;
     }
 
-    protected boolean matchesIndices(String currentIndex, String... indices) {
-        String[] concreteIndices = clusterService.state().metaData().concreteIndices(indices, IgnoreIndices.MISSING, true);
-        for (String index : concreteIndices) {
-            if (Regex.simpleMatch(index, currentIndex)) {
-                return true;
-            }
+    @Override
+    protected Query chosen(QueryParseContext parseContext, Query chosen, @Nullable Indices2416Branch source, @Nullable String name,
+                           boolean cache, @Nullable CacheKeyFilter.Key cacheKey) {
+        if (name != null) {
+            parseContext.addNamedQuery(name, chosen);
         }
-        return false;
+        return chosen;
     }
 }
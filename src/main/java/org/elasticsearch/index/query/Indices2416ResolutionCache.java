@@ -0,0 +1,432 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node level cache of the compiled {@link Indices2416IndicesMatcher} for the <tt>indices</tt> list of
+ * <tt>indices2416</tt> queries and filters.
+ * <p/>
+ * Entries are only valid for the cluster state they have been compiled against. A new generation is started
+ * whenever a cluster state with a new metadata gets published, so that each pattern list is compiled at most
+ * once per cluster state, and each index is checked against a given pattern list only once.
+ * <p/>
+ * Unless disabled, the new generation is filled when the cluster state gets applied, with the pattern lists and
+ * index decisions of the previous one, before replacing it. Searches running after an alias or index change
+ * then keep finding their decisions with a single volatile read and a map lookup.
+ */
+public class Indices2416ResolutionCache extends AbstractLifecycleComponent<Indices2416ResolutionCache> implements ClusterStateListener {
+
+    public static final String MAX_SIZE = "indices2416.resolution_cache.max_size";
+
+    /**
+     * Whether to rebuild the entries of the previous generation when the metadata changes.
+     */
+    public static final String WARM = "indices2416.resolution_cache.warm";
+
+    /**
+     * Dynamic index level setting, whether the decisions for the index are kept until indices get created or
+     * deleted or aliases change, and looked up without checking the cluster state.
+     */
+    public static final String PIN_DECISIONS = "index.indices2416.pin_decisions";
+
+    private static final ThreadLocal<Key> PROBE = new ThreadLocal<Key>() {
+        @Override
+        protected Key initialValue() {
+            return new Key();
+        }
+    };
+
+    private final ClusterService clusterService;
+
+    private final int maxSize;
+
+    private final boolean warm;
+
+    private volatile Generation generation;
+
+    /**
+     * Decisions of the indices having {@link #PIN_DECISIONS} enabled, keyed by pattern list.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<Key, Decision>> pinned = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public Indices2416ResolutionCache(Settings settings, ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+        this.maxSize = settings.getAsInt(MAX_SIZE, 1000);
+        this.warm = settings.getAsBoolean(WARM, true);
+        this.generation = new Generation(-1, null, null, maxSize);
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+        clusterService.add(this);
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+        clusterService.remove(this);
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+        generation = new Generation(-1, null, null, maxSize);
+        pinned.clear();
+    }
+
+    /**
+     * Sets whether the decisions for the given index are pinned, see {@link #PIN_DECISIONS}.
+     */
+    public void pin(String index, boolean pin) {
+        if (pin) {
+            pinned.putIfAbsent(index, Indices2416ResolutionCache.<Decision>lru(maxSize));
+        } else {
+            pinned.remove(index);
+        }
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        for (String index : event.indicesDeleted()) {
+            pinned.remove(index);
+        }
+        if (!event.metaDataChanged()) {
+            return;
+        }
+        MetaData metaData = event.state().metaData();
+        for (IndexMetaData indexMetaData : metaData) {
+            if (event.indexMetaDataChanged(indexMetaData)) {
+                // the setting is dynamic
+                pin(indexMetaData.index(), indexMetaData.settings().getAsBoolean(PIN_DECISIONS, false));
+            }
+        }
+        if (!event.indicesCreated().isEmpty() || !event.indicesDeleted().isEmpty()
+                || !metaData.aliases().equals(event.previousState().metaData().aliases())) {
+            // only indices and aliases take part in the decisions, mapping or settings changes leave them alone
+            for (String index : pinned.keySet()) {
+                // replaced rather than cleared, so that decisions still being made against the previous metadata are lost
+                pinned.replace(index, Indices2416ResolutionCache.<Decision>lru(maxSize));
+            }
+        }
+        Generation current = this.generation;
+        if (current.version > event.state().version()) {
+            return;
+        }
+        if (current.metaData == event.state().metaData()) {
+            // a search saw the new cluster state first and started the generation, fill it from the one it replaced
+            Generation previous = current.previous;
+            current.previous = null;
+            if (previous != null && previous.metaData != null) {
+                warm(previous, current);
+            }
+            return;
+        }
+        Generation generation = new Generation(event.state().version(), event.state().metaData(), null, maxSize);
+        if (warm && current.metaData != null) {
+            warm(current, generation);
+        }
+        this.generation = generation;
+    }
+
+    /**
+     * Compiles the pattern lists of the previous generation against the new metadata, and decides again for the
+     * indices that were looked up.
+     */
+    private void warm(Generation previous, Generation generation) {
+        for (Key key : previous.matchers.keySet()) {
+            if (key.hasDateRange()) {
+                continue; // the bounds are resolved against the current time, the pattern list may no longer be in use
+            }
+            if (!generation.matchers.containsKey(key)) {
+                generation.matchers.putIfAbsent(key, Indices2416IndicesMatcher.compile(generation.metaData, key.indices));
+            }
+        }
+        for (Key key : previous.decisions.keySet()) {
+            if (key.hasDateRange() || !generation.metaData.hasIndex(key.index)) {
+                continue; // deleted index, no need to remember it
+            }
+            Indices2416IndicesMatcher matcher = generation.matchers.get(new Key(null, key.indices, key.indicesHashCode));
+            if (matcher == null) {
+                matcher = Indices2416IndicesMatcher.compile(generation.metaData, key.indices);
+            }
+            generation.decisions.putIfAbsent(key, Decision.of(generation.metaData, matcher, key.index, key.indices));
+        }
+        logger.trace("warmed [{}] pattern lists and [{}] decisions for cluster state version [{}]", generation.matchers.size(), generation.decisions.size(), generation.version);
+    }
+
+    /**
+     * Returns whether the given index is part of the concrete indices the given indices, aliases or wildcard
+     * patterns resolve to.
+     */
+    public boolean matches(String currentIndex, String... indices) {
+        return decide(currentIndex, indices, indices.length, Arrays.hashCode(indices)).matches();
+    }
+
+    /**
+     * Same as {@link #matches(String, String...)} for the patterns buffered while parsing, without copying them
+     * unless a new entry needs to be cached.
+     */
+    boolean matches(String currentIndex, Indices2416Patterns patterns) {
+        return decide(currentIndex, patterns).matches();
+    }
+
+    /**
+     * Returns whether the given index is part of the buffered patterns, and through which filtered aliases.
+     */
+    Decision decide(String currentIndex, Indices2416Patterns patterns) {
+        ConcurrentMap<Key, Decision> pinned = this.pinned.get(currentIndex);
+        if (pinned == null) {
+            return decide(currentIndex, patterns.array(), patterns.size(), patterns.patternsHashCode());
+        }
+        // the decision only depends on the current index and the patterns, whatever the other indices searched
+        Key probe = PROBE.get().reset(null, patterns.array(), patterns.size(), patterns.patternsHashCode());
+        Decision decision = pinned.get(probe);
+        if (decision == null) {
+            // date ranges move with the current time, they cannot be pinned
+            boolean pin = !probe.hasDateRange();
+            decision = decide(currentIndex, patterns.array(), patterns.size(), patterns.patternsHashCode());
+            if (pin) {
+                pinned.putIfAbsent(new Key(null, patterns.toArray(), patterns.patternsHashCode()), decision);
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Returns the first of the patterns the given decision was made for, exclusions left apart, the current index
+     * matches on its own, or <tt>null</tt> if there is none. Meant for profiling, as nothing gets cached.
+     */
+    @Nullable
+    String matchedEntry(String currentIndex, Decision decision) {
+        if (decision.indices == null) {
+            return null;
+        }
+        MetaData metaData = clusterService.state().metaData();
+        for (String index : decision.indices) {
+            if (!index.startsWith("-") && Indices2416IndicesMatcher.compile(metaData, index).matches(currentIndex)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private Decision decide(String currentIndex, String[] indices, int size, int indicesHashCode) {
+        ClusterState state = clusterService.state();
+        Generation generation = generation(state);
+        if (generation == null) {
+            // we are looking at an older cluster state than the cached one, do not pollute the cache
+            String[] copy = Arrays.copyOf(indices, size);
+            return Decision.of(state.metaData(), Indices2416IndicesMatcher.compile(state.metaData(), copy), currentIndex, copy);
+        }
+        Key probe = PROBE.get();
+        Decision decision = generation.decisions.get(probe.reset(currentIndex, indices, size, indicesHashCode));
+        if (decision != null) {
+            return decision;
+        }
+        String[] copy = null;
+        Indices2416IndicesMatcher matcher = generation.matchers.get(probe.reset(null, indices, size, indicesHashCode));
+        if (matcher == null) {
+            copy = Arrays.copyOf(indices, size);
+            matcher = Indices2416IndicesMatcher.compile(generation.metaData, copy);
+            generation.matchers.putIfAbsent(new Key(null, copy, indicesHashCode), matcher);
+        }
+        if (copy == null) {
+            copy = Arrays.copyOf(indices, size);
+        }
+        decision = Decision.of(generation.metaData, matcher, currentIndex, copy);
+        generation.decisions.putIfAbsent(new Key(currentIndex, copy, indicesHashCode), decision);
+        return decision;
+    }
+
+    /**
+     * Returns a map holding up to the given number of entries, evicting the least recently used ones, so that the
+     * pattern lists in use stay cached whatever the number of those seen once.
+     */
+    private static <V> ConcurrentMap<Key, V> lru(int maxSize) {
+        return CacheBuilder.newBuilder().maximumSize(maxSize).<Key, V>build().asMap();
+    }
+
+    private Generation generation(ClusterState state) {
+        Generation generation = this.generation;
+        if (generation.metaData == state.metaData()) {
+            return generation;
+        }
+        if (generation.version > state.version()) {
+            return null;
+        }
+        // the listener has not been notified yet, start the new generation ourselves
+        generation.previous = null;
+        generation = new Generation(state.version(), state.metaData(), warm ? generation : null, maxSize);
+        this.generation = generation;
+        return generation;
+    }
+
+    static final class Generation {
+
+        final long version;
+
+        final MetaData metaData;
+
+        final ConcurrentMap<Key, Indices2416IndicesMatcher> matchers;
+
+        /**
+         * Outcome for each index and pattern list, so that all the shards of an index, and all the clauses of
+         * a request sharing the same pattern list, evaluate it once.
+         */
+        final ConcurrentMap<Key, Decision> decisions;
+
+        /**
+         * The generation this one replaced, until the cluster state listener has used it to fill this one.
+         */
+        @Nullable
+        volatile Generation previous;
+
+        Generation(long version, MetaData metaData, @Nullable Generation previous, int maxSize) {
+            this.version = version;
+            this.metaData = metaData;
+            this.previous = previous;
+            this.matchers = lru(maxSize);
+            this.decisions = lru(maxSize);
+        }
+    }
+
+    /**
+     * Whether an index is part of a list of patterns, and through which filtered aliases if it only is through
+     * such aliases.
+     */
+    static final class Decision {
+
+        static final Decision NO_MATCH = new Decision(false, null, null);
+
+        private final boolean matches;
+
+        @Nullable
+        private final String[] filteringAliases;
+
+        /**
+         * The patterns a match was decided for, kept as they are no longer around once the clause has been parsed.
+         */
+        @Nullable
+        private final String[] indices;
+
+        private Decision(boolean matches, @Nullable String[] filteringAliases, @Nullable String[] indices) {
+            this.matches = matches;
+            this.filteringAliases = filteringAliases;
+            this.indices = indices;
+        }
+
+        static Decision of(MetaData metaData, Indices2416IndicesMatcher matcher, String index, String[] indices) {
+            if (!matcher.matches(index)) {
+                return NO_MATCH;
+            }
+            return new Decision(true, Indices2416IndicesMatcher.filteringAliases(metaData, index, indices), indices);
+        }
+
+        boolean matches() {
+            return matches;
+        }
+
+        @Nullable
+        String[] filteringAliases() {
+            return filteringAliases;
+        }
+    }
+
+    /**
+     * Key for an index, or <tt>null</tt>, and a list of patterns. Only the first <tt>size</tt> patterns count, so
+     * that a reusable buffer can be used to look entries up.
+     */
+    static final class Key {
+
+        @Nullable
+        private String index;
+
+        private String[] indices;
+
+        private int size;
+
+        private int indicesHashCode;
+
+        private int hashCode;
+
+        Key() {
+        }
+
+        Key(@Nullable String index, String[] indices, int indicesHashCode) {
+            reset(index, indices, indices.length, indicesHashCode);
+        }
+
+        /**
+         * Only ever called on the lookup keys of {@link #PROBE}, never on the keys stored in the maps.
+         */
+        Key reset(@Nullable String index, String[] indices, int size, int indicesHashCode) {
+            this.index = index;
+            this.indices = indices;
+            this.size = size;
+            this.indicesHashCode = indicesHashCode;
+            this.hashCode = 31 * indicesHashCode + (index != null ? index.hashCode() : 0);
+            return this;
+        }
+
+        boolean hasDateRange() {
+            for (int i = 0; i < size; i++) {
+                if (indices[i].startsWith(Indices2416IndicesMatcher.DateRange.START)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            if (hashCode != key.hashCode || size != key.size) return false;
+            if (index != null ? !index.equals(key.index) : key.index != null) return false;
+            for (int i = 0; i < size; i++) {
+                if (!indices[i].equals(key.indices[i])) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,687 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.base.Charsets;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Specializes a search source for a given index on the coordinating node, replacing each <tt>indices2416</tt>
+ * query or filter with the branch that would be chosen on the shards of that index.
+ * <p/>
+ * As a search request carries a single source for all its indices, only requests searching a single index once
+ * pruned get rewritten, the shards of other requests choose the branches themselves.
+ * <p/>
+ * The shards then receive neither the branches they would skip nor the <tt>indices2416</tt> clauses themselves.
+ * Clauses that cannot be safely replaced, like named ones, are left as is and will be handled by the shards.
+ * <p/>
+ * Clauses are only looked for where a query or filter is expected: the <tt>query</tt> and <tt>filter</tt> of the
+ * search source, and the fields of compound queries and filters holding others. Documents, script parameters and
+ * any other value are copied as is, whatever their fields are named.
+ */
+public class Indices2416SourceRewriter {
+
+    private static final byte[] CLAUSE_NAME = Indices2416QueryParser.NAME.getBytes(Charsets.UTF_8);
+
+    private static final int OTHER = 0;
+    private static final int ALL = 1;
+    private static final int NONE = 2;
+
+    /**
+     * Fields of a query or filter whose value is a query or filter, or an array of them.
+     */
+    private static final ImmutableSet<String> INNER_CLAUSES = ImmutableSet.of("query", "filter", "must", "should", "must_not", "mustNot",
+            "queries", "filters", "no_match_query", "no_match_filter", "positive", "negative");
+
+    private static final int MUST = 0;
+    private static final int SHOULD = 1;
+    private static final int MUST_NOT = 2;
+
+    private final Indices2416ResolutionCache resolutionCache;
+
+    @Inject
+    public Indices2416SourceRewriter(Indices2416ResolutionCache resolutionCache) {
+        this.resolutionCache = resolutionCache;
+    }
+
+    /**
+     * Returns the given search request, specialized for the single index it ends up searching when possible.
+     * <p/>
+     * Only requests naming open concrete indices, or none at all, get specialized: the indices are pruned as by
+     * {@link #prune}, and the source is rewritten for the remaining index if there is only one left. A request
+     * all of whose indices get pruned still searches the first one, so that its response remains a regular one.
+     * Requests with an extra source, as given by URI parameters, are left as is.
+     */
+    public SearchRequest specialize(SearchRequest request, MetaData metaData) throws IOException {
+        if (request.source() == null || request.extraSource() != null) {
+            return request;
+        }
+        String[] concreteIndices = request.indices();
+        if (concreteIndices == null || concreteIndices.length == 0 || (concreteIndices.length == 1 && "_all".equals(concreteIndices[0]))) {
+            concreteIndices = metaData.concreteAllOpenIndices();
+        } else {
+            for (String index : concreteIndices) {
+                IndexMetaData indexMetaData = metaData.index(index);
+                if (indexMetaData == null || indexMetaData.state() != IndexMetaData.State.OPEN) {
+                    return request; // aliases and wildcards may carry filters and routings, leave them to the search
+                }
+            }
+        }
+        if (concreteIndices.length == 0) {
+            return request;
+        }
+        String[] indices = prune(request.source(), concreteIndices);
+        if (indices.length == 0) {
+            indices = new String[]{concreteIndices[0]};
+        }
+        request.indices(indices);
+        if (indices.length == 1) {
+            request.source(rewrite(request.source(), indices[0]), false);
+        }
+        return request;
+    }
+
+    /**
+     * Returns the source to use for the given index. Only the <tt>query</tt> and <tt>filter</tt> of the search
+     * source get rewritten, anything else is copied as is.
+     */
+    BytesReference rewrite(BytesReference source, String index) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                return source;
+            }
+            XContentBuilder builder = XContentFactory.contentBuilder(parser.contentType());
+            builder.startObject();
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token != XContentParser.Token.FIELD_NAME) {
+                    continue;
+                }
+                String fieldName = parser.currentName();
+                token = parser.nextToken();
+                builder.field(fieldName);
+                if (("query".equals(fieldName) || "filter".equals(fieldName)) && token == XContentParser.Token.START_OBJECT) {
+                    copyClause(parser, builder, index);
+                } else {
+                    builder.copyCurrentStructure(parser);
+                }
+            }
+            builder.endObject();
+            return builder.bytes();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns the indices the search source may return hits from, leaving out those for which the top level query
+     * is an <tt>indices2416</tt> query resolving to <tt>none</tt>. Searching only these avoids running query phases
+     * that are known in advance to be empty.
+     * <p/>
+     * The given indices must be concrete ones, so that dropping some does not lose any alias filter or routing.
+     * Sources with facets or suggestions are never pruned, as these may need the indices whose query matches none.
+     */
+    public String[] prune(BytesReference source, String... concreteIndices) throws IOException {
+        BytesReference query = prunableQuery(source);
+        Clause clause = query != null ? constantClause(query) : null;
+        if (clause == null) {
+            return concreteIndices;
+        }
+        List<String> indices = new ArrayList<String>(concreteIndices.length);
+        for (String index : concreteIndices) {
+            if (!matchesNone(clause, index)) {
+                indices.add(index);
+            }
+        }
+        return indices.toArray(new String[indices.size()]);
+    }
+
+    /**
+     * Returns the top level query of the given search source, or <tt>null</tt> if there is none or the source must
+     * not be pruned.
+     */
+    @Nullable
+    private static BytesReference prunableQuery(BytesReference source) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                return null;
+            }
+            BytesReference query = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    String fieldName = parser.currentName();
+                    token = parser.nextToken();
+                    if ("facets".equals(fieldName) || "suggest".equals(fieldName)) {
+                        return null; // global facets and suggestions do not depend on the query
+                    }
+                    if ("query".equals(fieldName) && token == XContentParser.Token.START_OBJECT) {
+                        query = Indices2416Branch.buffer(parser).source();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+            return query;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns whether the given <tt>indices2416</tt> query, once specialized for the given index, matches no document
+     * at all.
+     */
+    private boolean matchesNone(@Nullable Clause clause, String index) throws IOException {
+        if (clause == null || clause.filter) {
+            return false;
+        }
+        if (resolutionCache.matches(index, clause.indices)) {
+            return matchesNone(clause.branchClause(), index);
+        }
+        if (clause.noMatchBranch != null) {
+            return matchesNone(clause.noMatchBranchClause(), index);
+        }
+        return "none".equals(clause.noMatchType);
+    }
+
+    /**
+     * Copies the query or filter object the parser is positioned on.
+     */
+    private void copyClause(XContentParser parser, XContentBuilder builder, String index) throws IOException {
+        builder.startObject();
+        copyClauseFields(parser, builder, index);
+        builder.endObject();
+    }
+
+    /**
+     * Copies the fields of the query or filter object the parser is positioned on into the object currently opened
+     * on the builder.
+     */
+    private void copyClauseFields(XContentParser parser, XContentBuilder builder, String index) throws IOException {
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                continue;
+            }
+            String fieldName = parser.currentName();
+            token = parser.nextToken();
+            if (Indices2416QueryParser.NAME.equals(fieldName) && token == XContentParser.Token.START_OBJECT) {
+                rewriteClause(Indices2416Branch.buffer(parser).source(), builder, index);
+            } else if ("bool".equals(fieldName) && token == XContentParser.Token.START_OBJECT) {
+                rewriteBool(Indices2416Branch.buffer(parser).source(), builder, index);
+            } else {
+                builder.field(fieldName);
+                copyBody(parser, builder, index);
+            }
+        }
+    }
+
+    /**
+     * Copies the body of a query or filter, only looking for clauses to rewrite within its {@link #INNER_CLAUSES}.
+     * An array body, as taken by the <tt>and</tt> and <tt>or</tt> filters, is made of clauses.
+     */
+    private void copyBody(XContentParser parser, XContentBuilder builder, String index) throws IOException {
+        XContentParser.Token token = parser.currentToken();
+        if (token == XContentParser.Token.START_ARRAY) {
+            copyInnerClauses(parser, builder, index);
+            return;
+        }
+        if (token != XContentParser.Token.START_OBJECT) {
+            builder.copyCurrentStructure(parser);
+            return;
+        }
+        builder.startObject();
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                continue;
+            }
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            builder.field(fieldName);
+            if (INNER_CLAUSES.contains(fieldName)) {
+                copyInnerClauses(parser, builder, index);
+            } else {
+                builder.copyCurrentStructure(parser);
+            }
+        }
+        builder.endObject();
+    }
+
+    /**
+     * Copies the value of a field holding a query or filter, or an array of them.
+     */
+    private void copyInnerClauses(XContentParser parser, XContentBuilder builder, String index) throws IOException {
+        XContentParser.Token token = parser.currentToken();
+        if (token == XContentParser.Token.START_OBJECT) {
+            copyClause(parser, builder, index);
+        } else if (token == XContentParser.Token.START_ARRAY) {
+            builder.startArray();
+            while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                if (token == XContentParser.Token.START_OBJECT) {
+                    copyClause(parser, builder, index);
+                } else {
+                    builder.copyCurrentStructure(parser);
+                }
+            }
+            builder.endArray();
+        } else {
+            builder.copyCurrentStructure(parser);
+        }
+    }
+
+    private void rewriteClause(BytesReference clause, XContentBuilder builder, String index) throws IOException {
+        Clause parsed = Clause.parse(clause);
+        if (parsed == null) {
+            builder.field(Indices2416QueryParser.NAME);
+            XContentParser parser = XContentHelper.createParser(clause);
+            try {
+                parser.nextToken();
+                builder.copyCurrentStructure(parser);
+            } finally {
+                parser.close();
+            }
+            return;
+        }
+        boolean matches = resolutionCache.matches(index, parsed.indices);
+        BytesReference branch = matches ? parsed.branch : parsed.noMatchBranch;
+        if (branch == null) {
+            writeConstant(builder, parsed.filter, matches || !"none".equals(parsed.noMatchType));
+            return;
+        }
+        XContentParser parser = XContentHelper.createParser(branch);
+        try {
+            parser.nextToken();
+            copyClauseFields(parser, builder, index);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Copies a <tt>bool</tt> query or filter, dropping the <tt>indices2416</tt> clauses that resolve to a constant
+     * outcome not changing what the bool matches, or replacing the whole bool with <tt>none</tt> when one of them
+     * rules out every document. Clauses that may contribute to the score are kept.
+     */
+    private void rewriteBool(BytesReference bool, XContentBuilder builder, String index) throws IOException {
+        BoolOutcomes outcomes = Indices2416Branch.contains(bool, CLAUSE_NAME) ? outcomes(bool, index) : null;
+        if (outcomes != null && outcomes.none()) {
+            writeConstant(builder, outcomes.filter, false);
+            return;
+        }
+        if (outcomes != null && outcomes.empty()) {
+            writeConstant(builder, outcomes.filter, true);
+            return;
+        }
+        XContentParser parser = XContentHelper.createParser(bool);
+        try {
+            parser.nextToken();
+            builder.startObject("bool");
+            String currentFieldName = null;
+            int clause = 0;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                    continue;
+                }
+                int occur = occur(currentFieldName);
+                if (occur < 0) {
+                    builder.field(currentFieldName);
+                    builder.copyCurrentStructure(parser);
+                    continue;
+                }
+                if (outcomes == null) {
+                    builder.field(currentFieldName);
+                    copyInnerClauses(parser, builder, index);
+                    continue;
+                }
+                boolean started = false;
+                boolean array = token == XContentParser.Token.START_ARRAY;
+                while (!array || (token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    if (outcomes.kept(clause++)) {
+                        if (!started) {
+                            builder.startArray(currentFieldName);
+                            started = true;
+                        }
+                        copyClause(parser, builder, index);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    if (!array) {
+                        break;
+                    }
+                }
+                if (started) {
+                    builder.endArray();
+                }
+            }
+            builder.endObject();
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns the outcome of each clause of the given bool, or <tt>null</tt> if the bool must be copied as is.
+     */
+    @Nullable
+    private BoolOutcomes outcomes(BytesReference bool, String index) throws IOException {
+        BoolOutcomes outcomes = new BoolOutcomes();
+        boolean kindKnown = false;
+        XContentParser parser = XContentHelper.createParser(bool);
+        try {
+            parser.nextToken();
+            String currentFieldName = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                    if ("_name".equals(currentFieldName)) {
+                        return null; // the named bool must still be registered on the shards
+                    }
+                    continue;
+                }
+                int occur = occur(currentFieldName);
+                if (occur < 0) {
+                    parser.skipChildren();
+                    continue;
+                }
+                boolean array = token == XContentParser.Token.START_ARRAY;
+                while (!array || (token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    if (token != XContentParser.Token.START_OBJECT) {
+                        return null;
+                    }
+                    Clause clause = constantClause(Indices2416Branch.buffer(parser).source());
+                    int outcome = OTHER;
+                    if (clause != null) {
+                        if (kindKnown && clause.filter != outcomes.filter) {
+                            return null;
+                        }
+                        kindKnown = true;
+                        outcomes.filter = clause.filter;
+                        outcome = outcome(clause, index);
+                    }
+                    outcomes.add(occur, outcome);
+                    if (!array) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return kindKnown ? outcomes : null;
+    }
+
+    /**
+     * Returns the <tt>indices2416</tt> clause the given object is made of, or <tt>null</tt> if it is anything else.
+     */
+    @Nullable
+    private static Clause constantClause(BytesReference object) throws IOException {
+        XContentParser parser = XContentHelper.createParser(object);
+        BytesReference clause;
+        try {
+            parser.nextToken();
+            if (parser.nextToken() != XContentParser.Token.FIELD_NAME || !Indices2416QueryParser.NAME.equals(parser.currentName())
+                    || parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                return null;
+            }
+            clause = Indices2416Branch.buffer(parser).source();
+            if (parser.nextToken() != XContentParser.Token.END_OBJECT) {
+                return null;
+            }
+        } finally {
+            parser.close();
+        }
+        return Clause.parse(clause);
+    }
+
+    private int outcome(Clause clause, String index) {
+        boolean matches = resolutionCache.matches(index, clause.indices);
+        BytesReference branch = matches ? clause.branch : clause.noMatchBranch;
+        if (branch != null) {
+            return OTHER;
+        }
+        return matches || !"none".equals(clause.noMatchType) ? ALL : NONE;
+    }
+
+    private static int occur(String fieldName) {
+        if ("must".equals(fieldName)) {
+            return MUST;
+        } else if ("should".equals(fieldName)) {
+            return SHOULD;
+        } else if ("must_not".equals(fieldName) || "mustNot".equals(fieldName)) {
+            return MUST_NOT;
+        }
+        return -1;
+    }
+
+    private static void writeConstant(XContentBuilder builder, boolean filter, boolean matchAll) throws IOException {
+        if (matchAll) {
+            builder.startObject("match_all").endObject();
+        } else if (filter) {
+            builder.startObject("not").startObject("match_all").endObject().endObject();
+        } else {
+            builder.startObject("bool").startObject("must_not").startObject("match_all").endObject().endObject().endObject();
+        }
+    }
+
+    /**
+     * The occurrence and outcome of each clause of a bool, in order, and which ones can be dropped.
+     */
+    static class BoolOutcomes {
+
+        boolean filter;
+
+        private final List<int[]> clauses = new ArrayList<int[]>();
+
+        private final int[][] counts = new int[3][3];
+
+        void add(int occur, int outcome) {
+            clauses.add(new int[]{occur, outcome});
+            counts[occur][outcome]++;
+        }
+
+        private int count(int occur) {
+            return counts[occur][OTHER] + counts[occur][ALL] + counts[occur][NONE];
+        }
+
+        /**
+         * Whether the bool matches no document at all.
+         */
+        boolean none() {
+            if (counts[MUST][NONE] > 0 || counts[MUST_NOT][ALL] > 0) {
+                return true;
+            }
+            // a bool filter with should clauses needs one of them to match
+            return filter && count(SHOULD) > 0 && counts[SHOULD][NONE] == count(SHOULD);
+        }
+
+        /**
+         * Whether the clause at the given position needs to be kept.
+         */
+        boolean kept(int position) {
+            int[] clause = clauses.get(position);
+            int occur = clause[0];
+            int outcome = clause[1];
+            if (occur == MUST_NOT) {
+                return outcome != NONE;
+            }
+            if (!filter) {
+                return true; // query clauses contribute to the score and the coord
+            }
+            if (occur == MUST) {
+                return outcome != ALL;
+            }
+            // should: one matching everything satisfies the bool, otherwise those matching nothing do not count
+            return counts[SHOULD][ALL] == 0 && outcome != NONE;
+        }
+
+        /**
+         * Whether no clause needs to be kept, in which case the bool matches every document.
+         */
+        boolean empty() {
+            for (int i = 0; i < clauses.size(); i++) {
+                if (kept(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The parts of an <tt>indices2416</tt> clause that matter for the rewrite.
+     */
+    static class Clause {
+
+        boolean filter;
+
+        String[] indices;
+
+        BytesReference branch;
+
+        BytesReference noMatchBranch;
+
+        String noMatchType;
+
+        /**
+         * The branches as <tt>indices2416</tt> clauses, parsed once for all the indices being pruned.
+         */
+        private Clause branchClause;
+
+        private Clause noMatchBranchClause;
+
+        private boolean branchesParsed;
+
+        /**
+         * Returns the <tt>indices2416</tt> clause the branch is made of, or <tt>null</tt> if it is anything else.
+         */
+        @Nullable
+        Clause branchClause() throws IOException {
+            parseBranches();
+            return branchClause;
+        }
+
+        /**
+         * Returns the <tt>indices2416</tt> clause the no match branch is made of, or <tt>null</tt> if it is anything
+         * else or there is none.
+         */
+        @Nullable
+        Clause noMatchBranchClause() throws IOException {
+            parseBranches();
+            return noMatchBranchClause;
+        }
+
+        private void parseBranches() throws IOException {
+            if (!branchesParsed) {
+                branchClause = constantClause(branch);
+                noMatchBranchClause = noMatchBranch != null ? constantClause(noMatchBranch) : null;
+                branchesParsed = true;
+            }
+        }
+
+        /**
+         * Returns the parsed clause, or <tt>null</tt> if it must be left to the shards.
+         */
+        static Clause parse(BytesReference source) throws IOException {
+            Clause clause = new Clause();
+            boolean branchFound = false;
+            XContentParser parser = XContentHelper.createParser(source);
+            try {
+                parser.nextToken();
+                String currentFieldName = null;
+                XContentParser.Token token;
+                while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                    if (token == XContentParser.Token.FIELD_NAME) {
+                        currentFieldName = parser.currentName();
+                    } else if (token == XContentParser.Token.START_OBJECT) {
+                        if ("query".equals(currentFieldName) || "filter".equals(currentFieldName)) {
+                            if (branchFound) {
+                                return null;
+                            }
+                            branchFound = true;
+                            clause.filter = "filter".equals(currentFieldName);
+                            clause.branch = Indices2416Branch.buffer(parser).source();
+                        } else if ("no_match_query".equals(currentFieldName) || "no_match_filter".equals(currentFieldName)) {
+                            clause.noMatchBranch = Indices2416Branch.buffer(parser).source();
+                            clause.noMatchType = null;
+                        } else {
+                            return null;
+                        }
+                    } else if (token == XContentParser.Token.START_ARRAY) {
+                        if (!"indices".equals(currentFieldName) || clause.indices != null) {
+                            return null;
+                        }
+                        List<String> indices = new ArrayList<String>();
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                            if (token == XContentParser.Token.START_OBJECT) {
+                                // date ranges depend on the time the shards parse them at
+                                return null;
+                            }
+                            String value = parser.textOrNull();
+                            if (value == null) {
+                                return null;
+                            }
+                            indices.add(value);
+                        }
+                        clause.indices = indices.toArray(new String[indices.size()]);
+                    } else if (token.isValue()) {
+                        if ("index".equals(currentFieldName) && clause.indices == null) {
+                            clause.indices = new String[]{parser.text()};
+                        } else if ("no_match_query".equals(currentFieldName) || "no_match_filter".equals(currentFieldName)) {
+                            String type = parser.text();
+                            if ("all".equals(type) || "none".equals(type)) {
+                                clause.noMatchType = type;
+                                clause.noMatchBranch = null;
+                            }
+                        } else {
+                            // named clauses must still be registered on the shards
+                            return null;
+                        }
+                    }
+                }
+            } finally {
+                parser.close();
+            }
+            if (!branchFound || clause.indices == null) {
+                return null;
+            }
+            return clause;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.elasticsearch.common.collect.Maps.newTreeMap;
+
+/**
+ * Node level statistics about the <tt>indices2416</tt> queries and filters parsed by each index.
+ */
+public class Indices2416Stats extends AbstractLifecycleComponent<Indices2416Stats> implements ClusterStateListener {
+
+    private final ClusterService clusterService;
+
+    private final ConcurrentMap<String, IndexStats> indices = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public Indices2416Stats(Settings settings, ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+        clusterService.add(this);
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+        clusterService.remove(this);
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+        indices.clear();
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        for (String index : event.indicesDeleted()) {
+            indices.remove(index);
+        }
+    }
+
+    public IndexStats index(String index) {
+        IndexStats stats = indices.get(index);
+        if (stats == null) {
+            stats = new IndexStats();
+            IndexStats existing = indices.putIfAbsent(index, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of each index, sorted by index name.
+     */
+    public Map<String, IndexStats> indices() {
+        Map<String, IndexStats> indices = newTreeMap();
+        indices.putAll(this.indices);
+        return indices;
+    }
+
+    public static class IndexStats implements ToXContent {
+
+        /**
+         * Upper bounds, in microseconds, of the buckets of the resolution time histogram.
+         */
+        static final long[] RESOLUTION_BUCKETS = new long[]{1, 10, 100, 1000, 10000};
+
+        final CounterMetric clauses = new CounterMetric();
+
+        final CounterMetric branchesParsed = new CounterMetric();
+
+        final CounterMetric branchesSkipped = new CounterMetric();
+
+        final CounterMetric indicesAfterBranch = new CounterMetric();
+
+        final CounterMetric templateHits = new CounterMetric();
+
+        final CounterMetric nestedFolded = new CounterMetric();
+
+        final MeanMetric resolution = new MeanMetric();
+
+        final AtomicLongArray resolutionHistogram = new AtomicLongArray(RESOLUTION_BUCKETS.length + 1);
+
+        public void clause() {
+            clauses.inc();
+        }
+
+        public void branchParsed() {
+            branchesParsed.inc();
+        }
+
+        public void branchSkipped() {
+            branchesSkipped.inc();
+        }
+
+        /**
+         * A branch came before the indices, and had to be either parsed or deferred.
+         */
+        public void indicesAfterBranch() {
+            indicesAfterBranch.inc();
+        }
+
+        /**
+         * The clause was found in the {@link Indices2416TemplateCache}, and neither resolved nor parsed.
+         */
+        public void templateHit() {
+            templateHits.inc();
+        }
+
+        /**
+         * The indices of a clause directly nested within another one were decided from those of the enclosing
+         * clause, without being resolved.
+         */
+        public void nestedFolded() {
+            nestedFolded.inc();
+        }
+
+        public void resolution(long nanos) {
+            resolution.inc(nanos);
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = 0;
+            while (bucket < RESOLUTION_BUCKETS.length && micros >= RESOLUTION_BUCKETS[bucket]) {
+                bucket++;
+            }
+            resolutionHistogram.incrementAndGet(bucket);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("clauses", clauses.count());
+            builder.field("indices_after_branch", indicesAfterBranch.count());
+            builder.field("template_cache_hits", templateHits.count());
+            builder.field("nested_folded", nestedFolded.count());
+            builder.startObject("branches");
+            builder.field("parsed", branchesParsed.count());
+            builder.field("skipped", branchesSkipped.count());
+            builder.endObject();
+            builder.startObject("resolution");
+            builder.field("count", resolution.count());
+            builder.field("total_time_in_nanos", resolution.sum());
+            builder.startObject("histogram");
+            for (int i = 0; i < RESOLUTION_BUCKETS.length; i++) {
+                builder.field("lt_" + RESOLUTION_BUCKETS[i] + "us", resolutionHistogram.get(i));
+            }
+            builder.field("gte_" + RESOLUTION_BUCKETS[RESOLUTION_BUCKETS.length - 1] + "us", resolutionHistogram.get(RESOLUTION_BUCKETS.length));
+            builder.endObject();
+            builder.endObject();
+            builder.endObject();
+            return builder;
+        }
+    }
+}
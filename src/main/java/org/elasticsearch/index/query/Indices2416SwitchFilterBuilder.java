@@ -0,0 +1,98 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter that will execute the filter of the first case whose indices match the index it runs against, and
+ * "match_all" when no case does (by default).
+ */
+public class Indices2416SwitchFilterBuilder extends BaseFilterBuilder {
+
+    private final List<String[]> caseIndices = new ArrayList<String[]>();
+    private final List<FilterBuilder> caseFilters = new ArrayList<FilterBuilder>();
+
+    private String sDefaultFilter;
+    private FilterBuilder defaultFilter;
+
+    private String filterName;
+
+    /**
+     * Adds a case, executing the given filter for the specified indices. Cases are tried in the order they are added.
+     */
+    public Indices2416SwitchFilterBuilder addCase(FilterBuilder filterBuilder, String... indices) {
+        caseIndices.add(indices);
+        caseFilters.add(filterBuilder);
+        return this;
+    }
+
+    /**
+     * Sets the default filter, can either be <tt>all</tt> or <tt>none</tt>.
+     */
+    public Indices2416SwitchFilterBuilder defaultFilter(String type) {
+        this.sDefaultFilter = type;
+        return this;
+    }
+
+    /**
+     * Sets the filter to use when it executes on an index that matches none of the cases.
+     */
+    public Indices2416SwitchFilterBuilder defaultFilter(FilterBuilder defaultFilter) {
+        this.defaultFilter = defaultFilter;
+        return this;
+    }
+
+    /**
+     * Sets the filter name for the filter that can be used when searching for matched_filters per hit.
+     */
+    public Indices2416SwitchFilterBuilder filterName(String filterName) {
+        this.filterName = filterName;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Indices2416SwitchFilterParser.NAME);
+        builder.startArray("cases");
+        for (int i = 0; i < caseFilters.size(); i++) {
+            builder.startObject();
+            builder.field("indices", caseIndices.get(i));
+            builder.field("filter");
+            caseFilters.get(i).toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endArray();
+        if (defaultFilter != null) {
+            builder.field("default");
+            defaultFilter.toXContent(builder, params);
+        } else if (sDefaultFilter != null) {
+            builder.field("default", sDefaultFilter);
+        }
+        if (filterName != null) {
+            builder.field("_name", filterName);
+        }
+        builder.endObject();
+    }
+}
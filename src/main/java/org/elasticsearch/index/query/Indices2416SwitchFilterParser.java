@@ -0,0 +1,94 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.Filter;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.cache.filter.support.CacheKeyFilter;
+import org.elasticsearch.indices.IndicesService;
+
+import java.io.IOException;
+
+/**
+ * Parses an ordered list of <tt>cases</tt>, each made of <tt>indices</tt> and a <tt>filter</tt>, and a <tt>default</tt>
+ * filter. The filter of the first case whose indices match the current index is the only one parsed, the following
+ * cases and the default are skipped.
+ */
+public class Indices2416SwitchFilterParser extends Indices2416ParseEngine<Filter> implements FilterParser {
+
+    public static final String NAME = "indices2416_switch";
+
+    @Inject
+    public Indices2416SwitchFilterParser(Settings settings, Indices2416ResolutionCache resolutionCache, Indices2416Stats stats,
+                                         IndicesService indicesService, Indices2416TemplateCache templateCache) {
+        super(NAME, "filter", resolutionCache, stats, indicesService, templateCache, true);
+        field("_cache", CACHE);
+        field("_cache_key", CACHE_KEY);
+        field("_cacheKey", CACHE_KEY);
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Override
+    public Filter parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        return parseCached(parseContext, true);
+    }
+
+    @Override
+    protected Filter parseInner(QueryParseContext parseContext) throws IOException {
+        return parseContext.parseInnerFilter();
+    }
+
+    @Override
+    protected Filter parseBranch(Indices2416Branch branch, QueryParseContext parseContext, boolean lazy) throws IOException {
+        return branch.toFilter(parseContext);
+    }
+
+    @Override
+    protected Filter matchAll() {
+        return Queries.MATCH_ALL_FILTER;
+    }
+
+    @Override
+    protected Filter matchNone() {
+        return Queries.MATCH_NO_FILTER;
+    }
+
+    @Override
+    protected Filter filtered(Filter branch, Filter filter) {
+        return Indices2416FilterParser.restrict(branch, filter);
+    }
+
+    @Override
+    protected Filter chosen(QueryParseContext parseContext, Filter chosen, @Nullable Indices2416Branch source, @Nullable String name,
+                            boolean cache, @Nullable CacheKeyFilter.Key cacheKey) {
+        Filter filter = Indices2416FilterParser.cache(parseContext, chosen, cache, cacheKey);
+        if (name != null) {
+            parseContext.addNamedFilter(name, filter);
+        }
+        return filter;
+    }
+}
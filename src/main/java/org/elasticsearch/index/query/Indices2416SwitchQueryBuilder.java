@@ -0,0 +1,98 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query that will execute the query of the first case whose indices match the index it runs against, and
+ * "match_all" when no case does (by default).
+ */
+public class Indices2416SwitchQueryBuilder extends BaseQueryBuilder {
+
+    private final List<String[]> caseIndices = new ArrayList<String[]>();
+    private final List<QueryBuilder> caseQueries = new ArrayList<QueryBuilder>();
+
+    private String sDefaultQuery;
+    private QueryBuilder defaultQuery;
+
+    private String queryName;
+
+    /**
+     * Adds a case, executing the given query for the specified indices. Cases are tried in the order they are added.
+     */
+    public Indices2416SwitchQueryBuilder addCase(QueryBuilder queryBuilder, String... indices) {
+        caseIndices.add(indices);
+        caseQueries.add(queryBuilder);
+        return this;
+    }
+
+    /**
+     * Sets the default query, can either be <tt>all</tt> or <tt>none</tt>.
+     */
+    public Indices2416SwitchQueryBuilder defaultQuery(String type) {
+        this.sDefaultQuery = type;
+        return this;
+    }
+
+    /**
+     * Sets the query to use when it executes on an index that matches none of the cases.
+     */
+    public Indices2416SwitchQueryBuilder defaultQuery(QueryBuilder defaultQuery) {
+        this.defaultQuery = defaultQuery;
+        return this;
+    }
+
+    /**
+     * Sets the query name for the filter that can be used when searching for matched_filters per hit.
+     */
+    public Indices2416SwitchQueryBuilder queryName(String queryName) {
+        this.queryName = queryName;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Indices2416SwitchQueryParser.NAME);
+        builder.startArray("cases");
+        for (int i = 0; i < caseQueries.size(); i++) {
+            builder.startObject();
+            builder.field("indices", caseIndices.get(i));
+            builder.field("query");
+            caseQueries.get(i).toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endArray();
+        if (defaultQuery != null) {
+            builder.field("default");
+            defaultQuery.toXContent(builder, params);
+        } else if (sDefaultQuery != null) {
+            builder.field("default", sDefaultQuery);
+        }
+        if (queryName != null) {
+            builder.field("_name", queryName);
+        }
+        builder.endObject();
+    }
+}
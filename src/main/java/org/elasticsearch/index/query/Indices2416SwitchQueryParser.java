@@ -0,0 +1,97 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.search.MatchNoDocsQuery;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.cache.filter.support.CacheKeyFilter;
+import org.elasticsearch.indices.IndicesService;
+
+import java.io.IOException;
+
+/**
+ * Parses an ordered list of <tt>cases</tt>, each made of <tt>indices</tt> and a <tt>query</tt>, and a <tt>default</tt>
+ * query. The query of the first case whose indices match the current index is the only one parsed, the following
+ * cases and the default are skipped.
+ */
+public class Indices2416SwitchQueryParser extends Indices2416ParseEngine<Query> implements QueryParser {
+
+    public static final String NAME = "indices2416_switch";
+
+    @Inject
+    public Indices2416SwitchQueryParser(Settings settings, Indices2416ResolutionCache resolutionCache, Indices2416Stats stats,
+                                        IndicesService indicesService, Indices2416TemplateCache templateCache) {
+        super(NAME, "query", resolutionCache, stats, indicesService, templateCache, true);
+    }
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        return parseCached(parseContext, true);
+    }
+
+    @Override
+    protected Query parseInner(QueryParseContext parseContext) throws IOException {
+        return parseContext.parseInnerQuery();
+    }
+
+    @Override
+    protected Query parseBranch(Indices2416Branch branch, QueryParseContext parseContext, boolean lazy) throws IOException {
+        return branch.toQuery(parseContext);
+    }
+
+    @Override
+    protected Query copy(Query parsed) {
+        return Indices2416QueryParser.copyOf(parsed); // enclosing clauses may change its boost, or the boost of the queries it holds
+    }
+
+    @Override
+    protected Query matchAll() {
+        return Queries.newMatchAllQuery();
+    }
+
+    @Override
+    protected Query matchNone() {
+        return new MatchNoDocsQuery(); //Queries.newMatchNoDocsQuery();
+    }
+
+    @Override
+    protected Query filtered(Query branch, Filter filter) {
+        return Indices2416QueryParser.restrict(branch, filter);
+    }
+
+    @Override
+    protected Query chosen(QueryParseContext parseContext, Query chosen, @Nullable Indices2416Branch source, @Nullable String name,
+                           boolean cache, @Nullable CacheKeyFilter.Key cacheKey) {
+        if (name != null) {
+            parseContext.addNamedQuery(name, chosen);
+        }
+        return chosen;
+    }
+}
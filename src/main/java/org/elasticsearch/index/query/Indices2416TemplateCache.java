@@ -0,0 +1,254 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.search.Filter;
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node level cache of what <tt>indices2416</tt> clauses parsed to, per index, so that byte identical clauses sent
+ * over and over again skip both the resolution of their indices and the parsing of their branches.
+ * <p/>
+ * Entries are keyed by the source of the clause, the types of the request and the version of the metadata, which
+ * also covers mapping changes. Each index holds at most {@link #SIZE} entries, the least recently used ones being
+ * evicted first, and all of them are dropped whenever the metadata changes.
+ * <p/>
+ * Clauses whose outcome depends on the time, on other documents or on the current search, like those using date
+ * math, terms lookups, indexed shapes, scripts or parent/child queries, are never cached. This is decided from the
+ * field names and values of a clause once it has been parsed, so that hits do not pay for it.
+ */
+public class Indices2416TemplateCache extends AbstractLifecycleComponent<Indices2416TemplateCache> implements ClusterStateListener {
+
+    /**
+     * Maximum number of entries per index, <tt>0</tt> (the default) disabling the cache.
+     */
+    public static final String SIZE = "indices2416.template_cache.size";
+
+    /**
+     * Names of the fields that prevent a clause from being cached, wherever they appear. Filter strategies cannot be
+     * read back from the filtered queries they are set on, which therefore could not be copied.
+     */
+    private static final ImmutableSet<String> UNCACHEABLE_FIELDS = ImmutableSet.of("script", "has_child", "has_parent", "top_children",
+            "random_score", "strategy", "profile");
+
+    private final ClusterService clusterService;
+
+    private final int size;
+
+    private final ConcurrentMap<String, Cache<Key, Template>> indices = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public Indices2416TemplateCache(Settings settings, ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+        this.size = settings.getAsInt(SIZE, 0);
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+        clusterService.add(this);
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+        clusterService.remove(this);
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+        indices.clear();
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        if (event.metaDataChanged()) {
+            // entries are keyed by the metadata version, none of them can be used anymore, including those of closed indices
+            indices.clear();
+        }
+    }
+
+    boolean enabled() {
+        return size > 0;
+    }
+
+    /**
+     * Returns the key of the given clause source for the current metadata.
+     */
+    Key key(String clause, BytesReference source) {
+        return new Key(clause, clusterService.state().metaData().version(), QueryParseContext.getTypes(), source);
+    }
+
+    @Nullable
+    Template get(String index, Key key) {
+        Cache<Key, Template> cache = indices.get(index);
+        return cache != null ? cache.getIfPresent(key) : null;
+    }
+
+    void put(String index, Key key, Template template) {
+        Cache<Key, Template> cache = indices.get(index);
+        if (cache == null) {
+            cache = CacheBuilder.newBuilder().maximumSize(size).build();
+            Cache<Key, Template> existing = indices.putIfAbsent(index, cache);
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+        cache.put(key, template);
+    }
+
+    /**
+     * Returns whether what the given clause source parses to only depends on the source, the types of the request
+     * and the metadata. Field names are matched as a whole, so that a field named <tt>snowfall</tt> does not prevent
+     * caching, but any value that may hold date math does.
+     */
+    static boolean cacheable(BytesReference source) throws IOException {
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            List<String> objects = new ArrayList<String>(); // names of the fields holding the enclosing objects
+            String currentFieldName = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                    if (UNCACHEABLE_FIELDS.contains(currentFieldName) || lookup(objects, currentFieldName)) {
+                        return false;
+                    }
+                } else if (token == XContentParser.Token.START_OBJECT) {
+                    objects.add(currentFieldName);
+                } else if (token == XContentParser.Token.END_OBJECT) {
+                    currentFieldName = objects.remove(objects.size() - 1);
+                } else if (token == XContentParser.Token.VALUE_STRING && dateMath(parser.text())) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns whether the given value may hold date math, be it a bound like <tt>now-1d/d</tt> or
+     * <tt>2013-01-01||+1d</tt>, or a query string like <tt>timestamp:[now-1d TO now]</tt>. Values merely containing
+     * <tt>now</tt>, like <tt>nowhere</tt>, are given up on as well rather than risk caching a stale time.
+     */
+    private static boolean dateMath(String value) {
+        return value.contains("now") || value.contains("||");
+    }
+
+    /**
+     * Returns whether the given field, found in the object held by the last field of the given ones, points to a
+     * document to fetch, as terms lookups and indexed shapes do.
+     */
+    private static boolean lookup(List<String> objects, String fieldName) {
+        if (objects.size() < 2) {
+            return false;
+        }
+        String clause = objects.get(objects.size() - 2);
+        if ("terms".equals(clause) || "in".equals(clause)) {
+            return "id".equals(fieldName) || "path".equals(fieldName);
+        }
+        return "geo_shape".equals(clause) && "indexed_shape".equals(fieldName);
+    }
+
+    /**
+     * What a clause parsed to, along with the named filters it registered.
+     */
+    static final class Template {
+
+        private final Object parsed;
+
+        private final ImmutableMap<String, Filter> namedFilters;
+
+        Template(Object parsed, ImmutableMap<String, Filter> namedFilters) {
+            this.parsed = parsed;
+            this.namedFilters = namedFilters;
+        }
+
+        Object parsed() {
+            return parsed;
+        }
+
+        ImmutableMap<String, Filter> namedFilters() {
+            return namedFilters;
+        }
+    }
+
+    static final class Key {
+
+        private final String clause;
+
+        private final long version;
+
+        @Nullable
+        private final String[] types;
+
+        private final BytesReference source;
+
+        private final int hashCode;
+
+        Key(String clause, long version, @Nullable String[] types, BytesReference source) {
+            this.clause = clause;
+            this.version = version;
+            this.types = types;
+            this.source = source;
+            int result = clause.hashCode();
+            result = 31 * result + (int) (version ^ (version >>> 32));
+            result = 31 * result + Arrays.hashCode(types);
+            result = 31 * result + source.hashCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hashCode == key.hashCode && version == key.version && clause.equals(key.clause)
+                    && Arrays.equals(types, key.types) && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package org.elasticsearch.index.query;
 
-import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Injector;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.AbstractIndexComponent;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.indices.query.IndicesQueriesRegistry;
 
 public class RegisterIndices2416QueryParsers extends AbstractIndexComponent {
@@ -15,9 +15,18 @@ public class RegisterIndices2416QueryParsers extends AbstractIndexComponent {
     public RegisterIndices2416QueryParsers(Index index, @IndexSettings Settings indexSettings, IndicesQueriesRegistry indicesQueriesRegistry, Injector injector) {
         super(index, indexSettings);
 
-        ClusterService clusterService = injector.getInstance(ClusterService.class);
+        // the parsers are registered node wide, they must not depend on the settings of this very index
+        Settings settings = injector.getInstance(Settings.class);
+        Indices2416ResolutionCache resolutionCache = injector.getInstance(Indices2416ResolutionCache.class);
+        Indices2416Stats stats = injector.getInstance(Indices2416Stats.class);
+        IndicesService indicesService = injector.getInstance(IndicesService.class);
+        Indices2416TemplateCache templateCache = injector.getInstance(Indices2416TemplateCache.class);
 
-        indicesQueriesRegistry.addQueryParser(new Indices2416QueryParser(clusterService));
-        indicesQueriesRegistry.addFilterParser(new Indices2416FilterParser(clusterService));
+        resolutionCache.pin(index.name(), indexSettings.getAsBoolean(Indices2416ResolutionCache.PIN_DECISIONS, false));
+
+        indicesQueriesRegistry.addQueryParser(new Indices2416QueryParser(settings, resolutionCache, stats, indicesService, templateCache));
+        indicesQueriesRegistry.addFilterParser(new Indices2416FilterParser(settings, resolutionCache, stats, indicesService, templateCache));
+        indicesQueriesRegistry.addQueryParser(new Indices2416SwitchQueryParser(settings, resolutionCache, stats, indicesService, templateCache));
+        indicesQueriesRegistry.addFilterParser(new Indices2416SwitchFilterParser(settings, resolutionCache, stats, indicesService, templateCache));
     }
 }
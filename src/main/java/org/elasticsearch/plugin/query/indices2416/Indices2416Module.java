@@ -0,0 +1,18 @@
+package org.elasticsearch.plugin.query.indices2416;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.index.query.Indices2416ResolutionCache;
+import org.elasticsearch.index.query.Indices2416SourceRewriter;
+import org.elasticsearch.index.query.Indices2416Stats;
+import org.elasticsearch.index.query.Indices2416TemplateCache;
+
+public class Indices2416Module extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(Indices2416ResolutionCache.class).asEagerSingleton();
+        bind(Indices2416SourceRewriter.class).asEagerSingleton();
+        bind(Indices2416Stats.class).asEagerSingleton();
+        bind(Indices2416TemplateCache.class).asEagerSingleton();
+    }
+}
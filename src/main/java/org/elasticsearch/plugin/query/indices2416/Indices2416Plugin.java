@@ -1,7 +1,19 @@
 package org.elasticsearch.plugin.query.indices2416;
 
+import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.index.query.Indices2416ResolutionCache;
+import org.elasticsearch.index.query.Indices2416Stats;
+import org.elasticsearch.index.query.Indices2416TemplateCache;
+import org.elasticsearch.index.settings.IndexDynamicSettingsModule;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.indices2416.RestIndices2416SearchAction;
+import org.elasticsearch.rest.action.indices2416.RestIndices2416StatsAction;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.search.facet.FacetModule;
+import org.elasticsearch.search.facet.TransportFacetModule;
+import org.elasticsearch.search.facet.indices2416.Indices2416ProfileFacetParser;
+import org.elasticsearch.search.facet.indices2416.InternalIndices2416ProfileFacet;
 
 import java.util.Collection;
 
@@ -19,6 +31,40 @@ public class Indices2416Plugin extends AbstractPlugin {
         return "Indices query/filter that skip parsing for irrelevant indices (see ticket #2416 and pull request #4111)";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = newArrayList();
+        modules.add(Indices2416Module.class);
+        return modules;
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = newArrayList();
+        services.add(Indices2416ResolutionCache.class);
+        services.add(Indices2416Stats.class);
+        services.add(Indices2416TemplateCache.class);
+        return services;
+    }
+
+    public void onModule(RestModule module) {
+        module.addRestAction(RestIndices2416StatsAction.class);
+        module.addRestAction(RestIndices2416SearchAction.class);
+    }
+
+    public void onModule(IndexDynamicSettingsModule module) {
+        module.addDynamicSettings(Indices2416ResolutionCache.PIN_DECISIONS);
+    }
+
+    public void onModule(FacetModule module) {
+        module.addFacetProcessor(Indices2416ProfileFacetParser.class);
+    }
+
+    public void onModule(TransportFacetModule module) {
+        // lets transport clients read the facet
+        InternalIndices2416ProfileFacet.registerStreams();
+    }
+
     @Override
     public Collection<Class<? extends Module>> indexModules() {
         Collection<Class<? extends Module>> modules = newArrayList();
@@ -0,0 +1,90 @@
+package org.elasticsearch.rest.action.indices2416;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.Indices2416SourceRewriter;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+import org.elasticsearch.rest.action.search.RestSearchAction;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Runs a search as the search API would, once specialized by the {@link Indices2416SourceRewriter}: indices for
+ * which the top level <tt>indices2416</tt> query matches none are left out, and the source sent to a single
+ * remaining index holds the branches chosen for it only.
+ */
+public class RestIndices2416SearchAction extends BaseRestHandler {
+
+    private final ClusterService clusterService;
+
+    private final Indices2416SourceRewriter rewriter;
+
+    @Inject
+    public RestIndices2416SearchAction(Settings settings, Client client, RestController controller, ClusterService clusterService,
+                                       Indices2416SourceRewriter rewriter) {
+        super(settings, client);
+        this.clusterService = clusterService;
+        this.rewriter = rewriter;
+        controller.registerHandler(GET, "/_indices2416/search", this);
+        controller.registerHandler(POST, "/_indices2416/search", this);
+        controller.registerHandler(GET, "/{index}/_indices2416/search", this);
+        controller.registerHandler(POST, "/{index}/_indices2416/search", this);
+        controller.registerHandler(GET, "/{index}/{type}/_indices2416/search", this);
+        controller.registerHandler(POST, "/{index}/{type}/_indices2416/search", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        SearchRequest searchRequest;
+        try {
+            searchRequest = RestSearchAction.parseSearchRequest(request);
+            searchRequest.listenerThreaded(false);
+            searchRequest = rewriter.specialize(searchRequest, clusterService.state().metaData());
+        } catch (Throwable e) {
+            sendFailure(request, channel, e);
+            return;
+        }
+        client.search(searchRequest, new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                try {
+                    XContentBuilder builder = restContentBuilder(request);
+                    builder.startObject();
+                    response.toXContent(builder, request);
+                    builder.endObject();
+                    channel.sendResponse(new XContentRestResponse(request, response.status(), builder));
+                } catch (Throwable e) {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                sendFailure(request, channel, e);
+            }
+        });
+    }
+
+    private void sendFailure(RestRequest request, RestChannel channel, Throwable e) {
+        try {
+            channel.sendResponse(new XContentThrowableRestResponse(request, e));
+        } catch (IOException e1) {
+            logger.error("Failed to send failure response", e1);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.elasticsearch.rest.action.indices2416;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.Indices2416Stats;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.XContentRestResponse;
+import org.elasticsearch.rest.XContentThrowableRestResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Exposes the <tt>indices2416</tt> statistics of the node handling the request.
+ */
+public class RestIndices2416StatsAction extends BaseRestHandler {
+
+    private final Indices2416Stats stats;
+
+    @Inject
+    public RestIndices2416StatsAction(Settings settings, Client client, RestController controller, Indices2416Stats stats) {
+        super(settings, client);
+        this.stats = stats;
+        controller.registerHandler(GET, "/_indices2416/stats", this);
+        controller.registerHandler(GET, "/_indices2416/stats/{index}", this);
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel) {
+        try {
+            String[] indices = Strings.splitStringByCommaToArray(request.param("index"));
+            XContentBuilder builder = restContentBuilder(request);
+            builder.startObject();
+            builder.startObject("indices");
+            for (Map.Entry<String, Indices2416Stats.IndexStats> entry : stats.indices().entrySet()) {
+                if (indices.length > 0 && !contains(indices, entry.getKey())) {
+                    continue;
+                }
+                builder.field(entry.getKey());
+                entry.getValue().toXContent(builder, request);
+            }
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new XContentRestResponse(request, OK, builder));
+        } catch (Throwable e) {
+            try {
+                channel.sendResponse(new XContentThrowableRestResponse(request, e));
+            } catch (IOException e1) {
+                logger.error("Failed to send failure response", e1);
+            }
+        }
+    }
+
+    private static boolean contains(String[] indices, String index) {
+        for (String candidate : indices) {
+            if (candidate.equals(index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.facet.indices2416;
+
+import org.elasticsearch.index.query.Indices2416Profile;
+import org.elasticsearch.search.facet.Facet;
+
+import java.util.List;
+
+/**
+ * Reports, per shard, how the <tt>indices2416</tt> clauses having the <tt>profile</tt> option set got parsed.
+ */
+public interface Indices2416ProfileFacet extends Facet, Iterable<Indices2416ProfileFacet.Shard> {
+
+    /**
+     * The type of the facet.
+     */
+    public static final String TYPE = "indices2416_profile";
+
+    /**
+     * The profiled shards, ordered by index and shard id.
+     */
+    List<? extends Shard> getShards();
+
+    public interface Shard {
+
+        String getIndex();
+
+        int getShardId();
+
+        /**
+         * The profiles of the clauses parsed for the shard, in parsing order.
+         */
+        List<Indices2416Profile.Clause> getClauses();
+    }
+}
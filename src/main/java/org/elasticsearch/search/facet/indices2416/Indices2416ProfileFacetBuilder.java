@@ -0,0 +1,46 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.facet.indices2416;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.facet.FacetBuilder;
+
+import java.io.IOException;
+
+/**
+ * Asks for the profiles of the <tt>indices2416</tt> clauses having the <tt>profile</tt> option set.
+ */
+public class Indices2416ProfileFacetBuilder extends FacetBuilder {
+
+    public Indices2416ProfileFacetBuilder(String name) {
+        super(name);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(name);
+        builder.startObject(Indices2416ProfileFacet.TYPE);
+        builder.endObject();
+        addFilterFacetAndGlobal(builder, params);
+        builder.endObject();
+        return builder;
+    }
+}
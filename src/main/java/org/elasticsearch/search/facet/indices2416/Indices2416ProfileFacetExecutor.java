@@ -0,0 +1,85 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.facet.indices2416;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.elasticsearch.common.lucene.docset.ContextDocIdSet;
+import org.elasticsearch.index.query.Indices2416Profile;
+import org.elasticsearch.search.SearchShardTarget;
+import org.elasticsearch.search.facet.FacetExecutor;
+import org.elasticsearch.search.facet.InternalFacet;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports the profiles recorded while parsing the search of the shard. Does not look at the documents.
+ */
+public class Indices2416ProfileFacetExecutor extends FacetExecutor {
+
+    private final SearchContext context;
+
+    public Indices2416ProfileFacetExecutor(SearchContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public InternalFacet buildFacet(String facetName) {
+        SearchShardTarget shardTarget = context.shardTarget();
+        List<InternalIndices2416ProfileFacet.ShardEntry> shards = Collections.singletonList(
+                new InternalIndices2416ProfileFacet.ShardEntry(shardTarget.index(), shardTarget.shardId(), Indices2416Profile.clauses(context)));
+        return new InternalIndices2416ProfileFacet(facetName, shards);
+    }
+
+    @Override
+    public Collector collector() {
+        return new Collector();
+    }
+
+    @Override
+    public Post post() {
+        return new Post();
+    }
+
+    class Collector extends FacetExecutor.Collector {
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) throws IOException {
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+        }
+
+        @Override
+        public void postCollection() {
+        }
+    }
+
+    class Post extends FacetExecutor.Post {
+
+        @Override
+        public void executePost(List<ContextDocIdSet> docSets) throws IOException {
+        }
+    }
+}
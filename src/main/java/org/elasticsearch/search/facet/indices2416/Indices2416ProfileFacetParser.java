@@ -0,0 +1,70 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.facet.indices2416;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.facet.FacetExecutor;
+import org.elasticsearch.search.facet.FacetParser;
+import org.elasticsearch.search.facet.FacetPhaseExecutionException;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+
+/**
+ * Parses the <tt>indices2416_profile</tt> facet, which takes no option: <tt>{ "indices2416_profile" : {} }</tt>.
+ */
+public class Indices2416ProfileFacetParser extends AbstractComponent implements FacetParser {
+
+    @Inject
+    public Indices2416ProfileFacetParser(Settings settings) {
+        super(settings);
+        InternalIndices2416ProfileFacet.registerStreams();
+    }
+
+    @Override
+    public String[] types() {
+        return new String[]{Indices2416ProfileFacet.TYPE};
+    }
+
+    @Override
+    public FacetExecutor.Mode defaultMainMode() {
+        return FacetExecutor.Mode.POST;
+    }
+
+    @Override
+    public FacetExecutor.Mode defaultGlobalMode() {
+        return FacetExecutor.Mode.POST;
+    }
+
+    @Override
+    public FacetExecutor parse(String facetName, XContentParser parser, SearchContext context) throws IOException {
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                throw new FacetPhaseExecutionException(facetName, "[" + Indices2416ProfileFacet.TYPE + "] facet does not support [" + parser.currentName() + "]");
+            }
+        }
+        return new Indices2416ProfileFacetExecutor(context);
+    }
+}
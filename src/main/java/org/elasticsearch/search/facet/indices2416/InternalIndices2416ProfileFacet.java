@@ -0,0 +1,200 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.facet.indices2416;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.HashedBytesArray;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.index.query.Indices2416Profile;
+import org.elasticsearch.search.facet.Facet;
+import org.elasticsearch.search.facet.InternalFacet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+public class InternalIndices2416ProfileFacet extends InternalFacet implements Indices2416ProfileFacet {
+
+    private static final BytesReference STREAM_TYPE = new HashedBytesArray(Strings.toUTF8Bytes(TYPE));
+
+    public static void registerStreams() {
+        Streams.registerStream(STREAM, STREAM_TYPE);
+    }
+
+    static Stream STREAM = new Stream() {
+        @Override
+        public Facet readFacet(StreamInput in) throws IOException {
+            return readIndices2416ProfileFacet(in);
+        }
+    };
+
+    private static final Comparator<ShardEntry> SHARD_ORDER = new Comparator<ShardEntry>() {
+        @Override
+        public int compare(ShardEntry o1, ShardEntry o2) {
+            int cmp = o1.getIndex().compareTo(o2.getIndex());
+            return cmp != 0 ? cmp : o1.getShardId() - o2.getShardId();
+        }
+    };
+
+    private List<ShardEntry> shards;
+
+    InternalIndices2416ProfileFacet() {
+    }
+
+    public InternalIndices2416ProfileFacet(String name, List<ShardEntry> shards) {
+        super(name);
+        this.shards = shards;
+    }
+
+    @Override
+    public BytesReference streamType() {
+        return STREAM_TYPE;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public List<ShardEntry> getShards() {
+        return shards;
+    }
+
+    @Override
+    public Iterator<Shard> iterator() {
+        return Collections.<Shard>unmodifiableList(shards).iterator();
+    }
+
+    @Override
+    public Facet reduce(ReduceContext context) {
+        List<Facet> facets = context.facets();
+        List<ShardEntry> shards = new ArrayList<ShardEntry>();
+        for (Facet facet : facets) {
+            shards.addAll(((InternalIndices2416ProfileFacet) facet).shards);
+        }
+        Collections.sort(shards, SHARD_ORDER);
+        return new InternalIndices2416ProfileFacet(getName(), shards);
+    }
+
+    static final class Fields {
+        static final XContentBuilderString _TYPE = new XContentBuilderString("_type");
+        static final XContentBuilderString SHARDS = new XContentBuilderString("shards");
+        static final XContentBuilderString INDEX = new XContentBuilderString("index");
+        static final XContentBuilderString SHARD = new XContentBuilderString("shard");
+        static final XContentBuilderString CLAUSES = new XContentBuilderString("clauses");
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(getName());
+        builder.field(Fields._TYPE, TYPE);
+        builder.startArray(Fields.SHARDS);
+        for (ShardEntry shard : shards) {
+            builder.startObject();
+            builder.field(Fields.INDEX, shard.getIndex());
+            builder.field(Fields.SHARD, shard.getShardId());
+            builder.startArray(Fields.CLAUSES);
+            for (Indices2416Profile.Clause clause : shard.getClauses()) {
+                clause.toXContent(builder, params);
+            }
+            builder.endArray();
+            builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    public static InternalIndices2416ProfileFacet readIndices2416ProfileFacet(StreamInput in) throws IOException {
+        InternalIndices2416ProfileFacet facet = new InternalIndices2416ProfileFacet();
+        facet.readFrom(in);
+        return facet;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        shards = new ArrayList<ShardEntry>(size);
+        for (int i = 0; i < size; i++) {
+            String index = in.readString();
+            int shardId = in.readVInt();
+            int clausesSize = in.readVInt();
+            List<Indices2416Profile.Clause> clauses = new ArrayList<Indices2416Profile.Clause>(clausesSize);
+            for (int j = 0; j < clausesSize; j++) {
+                clauses.add(Indices2416Profile.Clause.readClause(in));
+            }
+            shards.add(new ShardEntry(index, shardId, clauses));
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(shards.size());
+        for (ShardEntry shard : shards) {
+            out.writeString(shard.getIndex());
+            out.writeVInt(shard.getShardId());
+            out.writeVInt(shard.getClauses().size());
+            for (Indices2416Profile.Clause clause : shard.getClauses()) {
+                clause.writeTo(out);
+            }
+        }
+    }
+
+    public static class ShardEntry implements Shard {
+
+        private final String index;
+
+        private final int shardId;
+
+        private final List<Indices2416Profile.Clause> clauses;
+
+        public ShardEntry(String index, int shardId, List<Indices2416Profile.Clause> clauses) {
+            this.index = index;
+            this.shardId = shardId;
+            this.clauses = clauses;
+        }
+
+        @Override
+        public String getIndex() {
+            return index;
+        }
+
+        @Override
+        public int getShardId() {
+            return shardId;
+        }
+
+        @Override
+        public List<Indices2416Profile.Clause> getClauses() {
+            return clauses;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.joda.time.DateTime;
+import org.elasticsearch.common.joda.time.DateTimeZone;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+/**
+ *
+ */
+public class Indices2416IndicesMatcherTests extends ElasticsearchTestCase {
+
+    private final MetaData metaData = MetaData.builder()
+            .put(indexMetaData("logs-2013"))
+            .put(indexMetaData("logs-archive-2012"))
+            .put(indexMetaData("logs-archive-2013"))
+            .put(indexMetaData("index1"))
+            .put(indexMetaData("index3").putAlias(AliasMetaData.builder("alias3")))
+            .build();
+
+    private static IndexMetaData.Builder indexMetaData(String index) {
+        return IndexMetaData.builder(index).settings(ImmutableSettings.settingsBuilder()
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0));
+    }
+
+    private Set<String> matching(String... indices) {
+        return matching(metaData, indices);
+    }
+
+    /**
+     * Returns the indices of the given cluster the given list matches.
+     */
+    private static Set<String> matching(MetaData metaData, String... indices) {
+        Indices2416IndicesMatcher matcher = Indices2416IndicesMatcher.compile(metaData, indices);
+        Set<String> matching = Sets.newTreeSet();
+        for (String index : metaData.concreteAllIndices()) {
+            if (matcher.matches(index)) {
+                matching.add(index);
+            }
+        }
+        return matching;
+    }
+
+    @Test
+    public void testExclusionsApplyFromLeftToRight() {
+        assertThat(matching("logs-*", "-logs-archive-*"), equalTo(set("logs-2013")));
+        assertThat(matching("-logs-archive-*", "logs-*"), equalTo(set("logs-2013", "logs-archive-2012", "logs-archive-2013", "index1", "index3")));
+        assertThat(matching("logs-*", "-logs-archive-*", "logs-archive-2013"), equalTo(set("logs-2013", "logs-archive-2013")));
+        assertThat(matching("logs-*", "-logs-archive-*", "+logs-archive-2013"), equalTo(set("logs-2013", "logs-archive-2013")));
+        assertThat(matching("-index1"), equalTo(set("logs-2013", "logs-archive-2012", "logs-archive-2013", "index3")));
+        assertThat(matching("-index1", "-alias3", "index1"), equalTo(set("logs-2013", "logs-archive-2012", "logs-archive-2013", "index1")));
+        assertThat(matching("_all", "-alias3"), equalTo(set("logs-2013", "logs-archive-2012", "logs-archive-2013", "index1")));
+        assertThat(matching("index*", "-index*", "alias3"), equalTo(set("index3")));
+    }
+
+    @Test
+    public void testExclusionsApplyToRanges() {
+        assertThat(matching("logs-archive-2000..logs-archive-2099", "-logs-archive-2012"), equalTo(set("logs-archive-2013")));
+        assertThat(matching("-logs-archive-2012", "logs-archive-2000..logs-archive-2099"), equalTo(set("logs-2013", "logs-archive-2012",
+                "logs-archive-2013", "index1", "index3")));
+        assertThat(matching("logs-*", "-logs-archive-2000..logs-archive-2099"), equalTo(set("logs-2013")));
+    }
+
+    @Test
+    public void testExclusionsMatchTheSearchApi() {
+        String[][] lists = {
+                {"logs-*", "-logs-archive-*"},
+                {"-logs-archive-*", "logs-*"},
+                {"logs-*", "-logs-archive-*", "logs-archive-2013"},
+                {"-index1"},
+                {"-index*", "index3"},
+                {"index*", "-index*", "alias3"},
+                {"logs-*", "-*2013", "+logs-2013"}
+        };
+        for (String[] list : lists) {
+            assertThat(Arrays.toString(list), matching(list), equalTo(set(metaData.concreteIndices(list))));
+        }
+    }
+
+    @Test
+    public void testNameRanges() {
+        MetaData metaData = MetaData.builder()
+                .put(indexMetaData("index1"))
+                .put(indexMetaData("index3"))
+                .put(indexMetaData("index1..index3"))
+                .put(indexMetaData("logs").putAlias(AliasMetaData.builder("index0..index9")))
+                .build();
+        assertThat(matching(metaData, "index0..index2"), equalTo(set("index1")));
+        assertThat(matching(metaData, "index1..index3.."), equalTo(set("index1", "index1..index3", "index3")));
+        // names of existing indices and aliases are never ranges
+        assertThat(matching(metaData, "index1..index3"), equalTo(set("index1..index3")));
+        assertThat(matching(metaData, "index0..index9"), equalTo(set("logs")));
+        assertThat(matching(metaData, "-index1..index3"), equalTo(set("index1", "index3", "logs")));
+    }
+
+    @Test
+    public void testDateRangeRoundsToTheFormat() {
+        long now = new DateTime(2013, 11, 20, 15, 30, DateTimeZone.UTC).getMillis();
+        String entry = Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-7d", "now", now);
+        assertThat(entry, equalTo("<logs-{yyyy.MM.dd}2013.11.13..2013.11.20>"));
+        Indices2416IndicesMatcher matcher = Indices2416IndicesMatcher.compile(MetaData.EMPTY_META_DATA, entry);
+        // the bounds are days, now-7d at 15:30 still lets the whole day in
+        assertTrue(matcher.matches("logs-2013.11.13"));
+        assertTrue(matcher.matches("logs-2013.11.20"));
+        assertFalse(matcher.matches("logs-2013.11.12"));
+        assertFalse(matcher.matches("logs-2013.11.21"));
+        assertFalse(matcher.matches("logs-archive"));
+        assertFalse(matcher.matches("other-2013.11.15"));
+
+        entry = Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM", "now-2M", "now", now);
+        assertThat(entry, equalTo("<logs-{yyyy.MM}2013.09..2013.11>"));
+        matcher = Indices2416IndicesMatcher.compile(MetaData.EMPTY_META_DATA, entry);
+        assertTrue(matcher.matches("logs-2013.09"));
+        assertTrue(matcher.matches("logs-2013.11"));
+        assertFalse(matcher.matches("logs-2013.08"));
+        assertFalse(matcher.matches("logs-2013.12"));
+    }
+
+    @Test
+    public void testDateRangeDateMathBounds() {
+        long now = new DateTime(2013, 11, 20, 15, 30, DateTimeZone.UTC).getMillis();
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-1d/d", "now/d", now),
+                equalTo("<logs-{yyyy.MM.dd}2013.11.19..2013.11.20>"));
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now/M", "now+1M/M", now),
+                equalTo("<logs-{yyyy.MM.dd}2013.11.01..2013.12.31>"));
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "2013.11.01||+1w", null, now),
+                equalTo("<logs-{yyyy.MM.dd}2013.11.08..>"));
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd.HH", null, "now-1h", now),
+                equalTo("<logs-{yyyy.MM.dd.HH}..2013.11.20.14>"));
+
+        Indices2416IndicesMatcher matcher = Indices2416IndicesMatcher.compile(MetaData.EMPTY_META_DATA,
+                Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "2013.11.01||+1w", null, now));
+        assertFalse(matcher.matches("logs-2013.11.07"));
+        assertTrue(matcher.matches("logs-2013.11.08"));
+        assertTrue(matcher.matches("logs-2099.01.01"));
+    }
+
+    @Test
+    public void testDateRangeKeyIsStable() {
+        // the entry is what the resolution cache gets keyed on, it only changes once a new index falls into the range
+        long morning = new DateTime(2013, 11, 20, 0, 0, 1, DateTimeZone.UTC).getMillis();
+        long evening = new DateTime(2013, 11, 20, 23, 59, 59, DateTimeZone.UTC).getMillis();
+        long nextDay = new DateTime(2013, 11, 21, 0, 0, 0, DateTimeZone.UTC).getMillis();
+        String entry = Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-7d/d", "now/d", morning);
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-7d/d", "now/d", morning), equalTo(entry));
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-7d/d", "now/d", evening), equalTo(entry));
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-7d/d", "now/d", nextDay), not(equalTo(entry)));
+        assertThat(Indices2416IndicesMatcher.DateRange.entry("logs-", "yyyy.MM.dd", "now-7d", "now", evening), equalTo(entry));
+    }
+
+    @Test
+    public void testMalformedDateRanges() {
+        String[] entries = {"<logs-{QQQ}..>", "<logs-{YYYY.MM.dd}2013.13.45..>", "<logs-{yyyy.MM.dd}..yesterday>"};
+        for (String entry : entries) {
+            try {
+                matching(entry);
+                fail("Should have failed as [" + entry + "] is not a valid date range");
+            } catch (QueryParsingException e) {
+                assertThat(e.getMessage(), containsString(entry));
+            }
+        }
+    }
+
+    private static Set<String> set(String... indices) {
+        return Sets.newTreeSet(Arrays.asList(indices));
+    }
+}
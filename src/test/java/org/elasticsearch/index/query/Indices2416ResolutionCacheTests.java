@@ -0,0 +1,169 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.Indices2416ResolutionCache.Decision;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ *
+ */
+public class Indices2416ResolutionCacheTests extends ElasticsearchTestCase {
+
+    private ClusterState state = ClusterState.builder().build();
+
+    private final Indices2416ResolutionCache cache = new Indices2416ResolutionCache(ImmutableSettings.EMPTY, clusterService());
+
+    /**
+     * Returns a cluster service only serving the state last published by the test.
+     */
+    private ClusterService clusterService() {
+        return (ClusterService) Proxy.newProxyInstance(ClusterService.class.getClassLoader(), new Class[]{ClusterService.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("state")) {
+                    return state;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static IndexMetaData.Builder indexMetaData(String index, boolean pinDecisions) {
+        return IndexMetaData.builder(index).settings(ImmutableSettings.settingsBuilder()
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0)
+                .put(Indices2416ResolutionCache.PIN_DECISIONS, pinDecisions));
+    }
+
+    /**
+     * Index pinning its decisions, only part of <tt>red1</tt> through a filtered alias, so that each decision is
+     * its own instance.
+     */
+    private static IndexMetaData.Builder index1(boolean pinDecisions) {
+        return indexMetaData("index1", pinDecisions).putAlias(AliasMetaData.builder("red1").filter("{\"term\":{\"tag\":\"red\"}}"));
+    }
+
+    private void publish(MetaData.Builder metaData) {
+        ClusterState previous = state;
+        state = ClusterState.builder().version(previous.version() + 1).metaData(metaData).build();
+        cache.clusterChanged(new ClusterChangedEvent("test", state, previous));
+    }
+
+    /**
+     * Publishes a new mapping for the given index, a metadata change the decisions do not depend on.
+     */
+    private void putMapping(String index) throws Exception {
+        MetaData metaData = state.metaData();
+        publish(MetaData.builder(metaData).put(IndexMetaData.builder(metaData.index(index))
+                .putMapping("type" + state.version(), "{\"type" + state.version() + "\":{}}")));
+    }
+
+    private Decision decide(String index) {
+        return decide(cache, index, "red1");
+    }
+
+    private static Decision decide(Indices2416ResolutionCache cache, String index, String pattern) {
+        Indices2416Patterns patterns = Indices2416Patterns.current(0);
+        patterns.add(pattern);
+        return cache.decide(index, patterns);
+    }
+
+    @Test
+    public void testPinnedDecisionsSurviveMetaDataChangesLeavingResolutionAlone() throws Exception {
+        publish(MetaData.builder().put(index1(true)).put(indexMetaData("index2", false)));
+        Decision decision = decide("index1");
+        assertThat(decision.filteringAliases(), arrayContaining("red1"));
+        assertThat(decide("index1"), sameInstance(decision));
+
+        putMapping("index1");
+        assertThat(decide("index1"), sameInstance(decision));
+
+        MetaData metaData = state.metaData();
+        publish(MetaData.builder(metaData).put(IndexMetaData.builder(metaData.index("index2")).settings(ImmutableSettings.settingsBuilder()
+                .put(metaData.index("index2").settings()).put("index.refresh_interval", "5s"))));
+        assertThat(decide("index1"), sameInstance(decision));
+
+        // aliases and indices take part in the decisions
+        metaData = state.metaData();
+        publish(MetaData.builder(metaData).put(IndexMetaData.builder(metaData.index("index2")).putAlias(AliasMetaData.builder("alias2"))));
+        Decision other = decide("index1");
+        assertThat(other, not(sameInstance(decision)));
+        assertThat(other.filteringAliases(), arrayContaining("red1"));
+
+        publish(MetaData.builder(state.metaData()).put(indexMetaData("index3", false)));
+        decision = decide("index1");
+        assertThat(decision, not(sameInstance(other)));
+        putMapping("index3");
+        assertThat(decide("index1"), sameInstance(decision));
+    }
+
+    @Test
+    public void testRemovingTheSettingDropsPinnedDecisions() throws Exception {
+        publish(MetaData.builder().put(index1(true)));
+        Decision decision = decide("index1");
+        putMapping("index1");
+        assertThat(decide("index1"), sameInstance(decision));
+
+        publish(MetaData.builder().put(index1(false)));
+        decision = decide("index1");
+        putMapping("index1");
+        assertThat(decide("index1"), not(sameInstance(decision)));
+
+        // and turning it on again pins the decisions from then on
+        publish(MetaData.builder().put(index1(true)));
+        decision = decide("index1");
+        putMapping("index1");
+        assertThat(decide("index1"), sameInstance(decision));
+    }
+
+    @Test
+    public void testFullCacheKeepsTheRecentlyUsedEntries() throws Exception {
+        Indices2416ResolutionCache cache = new Indices2416ResolutionCache(ImmutableSettings.settingsBuilder()
+                .put(Indices2416ResolutionCache.MAX_SIZE, 10).build(), clusterService());
+        publish(MetaData.builder().put(index1(false)));
+        for (int i = 0; i < 100; i++) {
+            decide(cache, "index1", "once" + i);
+        }
+        // a list showing up once the cache is full still gets cached, and stays so while in use
+        Decision decision = decide(cache, "index1", "red1");
+        for (int i = 100; i < 200; i++) {
+            assertThat(decide(cache, "index1", "red1"), sameInstance(decision));
+            decide(cache, "index1", "once" + i);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermFilter;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.common.lucene.search.AndFilter;
+import org.elasticsearch.common.lucene.search.MatchNoDocsQuery;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.lucene.search.XConstantScoreQuery;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Checks that restricting the chosen branch to the alias filters short-circuits the all and none outcomes.
+ */
+public class Indices2416RestrictTests extends ElasticsearchTestCase {
+
+    private final Filter aliasFilter = new TermFilter(new Term("tag", "alias"));
+
+    @Test
+    public void testRestrictQuery() {
+        Query none = new MatchNoDocsQuery();
+        assertThat(Indices2416QueryParser.restrict(none, aliasFilter), sameInstance(none));
+
+        Query all = Indices2416QueryParser.restrict(Queries.newMatchAllQuery(), aliasFilter);
+        assertThat(all, instanceOf(XConstantScoreQuery.class));
+        assertThat(((XConstantScoreQuery) all).getFilter(), sameInstance(aliasFilter));
+
+        Query other = Indices2416QueryParser.restrict(new TermQuery(new Term("text", "a")), aliasFilter);
+        assertThat(other, instanceOf(XFilteredQuery.class));
+        assertThat(((XFilteredQuery) other).getQuery(), equalTo((Query) new TermQuery(new Term("text", "a"))));
+        assertThat(((XFilteredQuery) other).getFilter(), sameInstance(aliasFilter));
+    }
+
+    @Test
+    public void testRestrictFilter() {
+        assertThat(Indices2416FilterParser.restrict(Queries.MATCH_NO_FILTER, aliasFilter), sameInstance(Queries.MATCH_NO_FILTER));
+        assertThat(Indices2416FilterParser.restrict(Queries.MATCH_ALL_FILTER, aliasFilter), sameInstance(aliasFilter));
+
+        Filter branch = new TermFilter(new Term("text", "a"));
+        Filter other = Indices2416FilterParser.restrict(branch, aliasFilter);
+        assertThat(other, instanceOf(AndFilter.class));
+        assertThat(((AndFilter) other).filters().size(), equalTo(2));
+        assertThat(((AndFilter) other).filters().get(0), sameInstance(branch));
+        assertThat(((AndFilter) other).filters().get(1), sameInstance(aliasFilter));
+    }
+}
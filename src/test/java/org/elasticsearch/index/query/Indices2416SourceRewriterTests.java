@@ -0,0 +1,188 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.query;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ *
+ */
+public class Indices2416SourceRewriterTests extends ElasticsearchTestCase {
+
+    private final MetaData metaData = MetaData.builder()
+            .put(indexMetaData("index1"))
+            .put(indexMetaData("index2"))
+            .put(indexMetaData("index3").putAlias(AliasMetaData.builder("alias3")))
+            .build();
+
+    private final Indices2416SourceRewriter rewriter = new Indices2416SourceRewriter(new Indices2416ResolutionCache(ImmutableSettings.EMPTY, null) {
+        @Override
+        public boolean matches(String currentIndex, String... indices) {
+            return Indices2416IndicesMatcher.compile(metaData, indices).matches(currentIndex);
+        }
+    });
+
+    private static IndexMetaData.Builder indexMetaData(String index) {
+        return IndexMetaData.builder(index).settings(ImmutableSettings.settingsBuilder()
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0));
+    }
+
+    /**
+     * Returns the given JSON, written with single quotes for readability.
+     */
+    private static BytesReference json(String json) {
+        return new BytesArray(json.replace('\'', '"'));
+    }
+
+    private String rewrite(String source, String index) throws Exception {
+        return rewriter.rewrite(json(source), index).toUtf8();
+    }
+
+    @Test
+    public void testRewriteTopLevelClause() throws Exception {
+        String source = "{'query':{'indices2416':{'indices':['index1'],'query':{'term':{'text':'a'}},'no_match_query':{'term':{'text':'b'}}}},'size':5}";
+        assertThat(rewrite(source, "index1"), equalTo(json("{'query':{'term':{'text':'a'}},'size':5}").toUtf8()));
+        assertThat(rewrite(source, "index2"), equalTo(json("{'query':{'term':{'text':'b'}},'size':5}").toUtf8()));
+
+        source = "{'filter':{'indices2416':{'index':'alias3','filter':{'term':{'text':'a'}},'no_match_filter':'none'}}}";
+        assertThat(rewrite(source, "index3"), equalTo(json("{'filter':{'term':{'text':'a'}}}").toUtf8()));
+        assertThat(rewrite(source, "index1"), equalTo(json("{'filter':{'not':{'match_all':{}}}}").toUtf8()));
+    }
+
+    @Test
+    public void testRewriteNestedClauses() throws Exception {
+        String source = "{'query':{'filtered':{'query':{'indices2416':{'indices':['index1'],'query':{'match':{'text':'a'}},'no_match_query':'all'}}," +
+                "'filter':{'and':[{'indices2416':{'indices':['index2'],'filter':{'term':{'text':'b'}}}},{'term':{'tag':'c'}}]}}}}";
+        assertThat(rewrite(source, "index1"), equalTo(json("{'query':{'filtered':{'query':{'match':{'text':'a'}}," +
+                "'filter':{'and':[{'match_all':{}},{'term':{'tag':'c'}}]}}}}").toUtf8()));
+        assertThat(rewrite(source, "index2"), equalTo(json("{'query':{'filtered':{'query':{'match_all':{}}," +
+                "'filter':{'and':[{'term':{'text':'b'}},{'term':{'tag':'c'}}]}}}}").toUtf8()));
+
+        // the chosen branch may itself hold clauses
+        source = "{'query':{'indices2416':{'indices':['index1','index2'],'query':{'indices2416':{'indices':['index2'],'query':{'term':{'text':'b'}}," +
+                "'no_match_query':'none'}},'no_match_query':'none'}}}";
+        assertThat(rewrite(source, "index2"), equalTo(json("{'query':{'term':{'text':'b'}}}").toUtf8()));
+    }
+
+    @Test
+    public void testRewriteLeavesClausesOutsideQueriesAlone() throws Exception {
+        // named clauses, script parameters, fields named after clauses and anything outside of the query and filter
+        String source = "{'query':{'custom_score':{'query':{'indices2416':{'indices':['index1'],'query':{'match_all':{}},'_name':'named'}}," +
+                "'script':'_score','params':{'indices2416':{'indices':['index1'],'query':{'match_all':{}}}}}}," +
+                "'script_fields':{'field':{'script':'doc','params':{'query':{'indices2416':{'indices':['index1'],'query':{'match_all':{}}}}}}}," +
+                "'facets':{'facet':{'query':{'term':{'query':{'indices2416':{'indices':['index1'],'query':{'match_all':{}}}}}}}}}";
+        assertThat(rewrite(source, "index1"), equalTo(json(source).toUtf8()));
+        assertThat(rewrite(source, "index2"), equalTo(json(source).toUtf8()));
+    }
+
+    @Test
+    public void testSpecialize() throws Exception {
+        String source = "{'query':{'indices2416':{'indices':['index1'],'query':{'term':{'text':'a'}},'no_match_query':'none'}}}";
+        SearchRequest request = rewriter.specialize(new SearchRequest("index1", "index2").source(json(source), false), metaData);
+        assertThat(request.indices(), arrayContaining("index1"));
+        assertThat(request.source().toUtf8(), equalTo(json("{'query':{'term':{'text':'a'}}}").toUtf8()));
+
+        // no index left, the first one still gets searched for nothing
+        request = rewriter.specialize(new SearchRequest("index2", "index3").source(json(source), false), metaData);
+        assertThat(request.indices(), arrayContaining("index2"));
+        assertThat(request.source().toUtf8(), equalTo(json("{'query':{'bool':{'must_not':{'match_all':{}}}}}").toUtf8()));
+
+        // all the open indices when none is given
+        source = "{'query':{'indices2416':{'indices':['index1','index3'],'query':{'term':{'text':'a'}},'no_match_query':'none'}}}";
+        request = rewriter.specialize(new SearchRequest().source(json(source), false), metaData);
+        assertThat(request.indices().length, equalTo(2));
+        assertThat(request.source().toUtf8(), equalTo(json(source).toUtf8()));
+
+        // aliases may carry filters, requests with an extra source may override the query
+        request = new SearchRequest("alias3", "index1").source(json(source), false);
+        assertThat(rewriter.specialize(request, metaData), sameInstance(request));
+        assertThat(request.indices(), arrayContaining("alias3", "index1"));
+        request = new SearchRequest("index1", "index2").source(json(source), false).extraSource(json("{'size':1}"), false);
+        assertThat(rewriter.specialize(request, metaData), sameInstance(request));
+        assertThat(request.indices(), arrayContaining("index1", "index2"));
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        String query = "'query':{'indices2416':{'indices':['index1','alias3'],'query':{'term':{'text':'a'}},'no_match_query':'none'}}";
+        assertThat(rewriter.prune(json("{" + query + "}"), "index1", "index2", "index3"), arrayContaining("index1", "index3"));
+        assertThat(rewriter.prune(json("{" + query + ",'size':0}"), "index2"), emptyArray());
+        // only the top level query tells
+        assertThat(rewriter.prune(json("{'query':{'match_all':{}},'filter':{'indices2416':{'indices':['index1'],'filter':{'match_all':{}}," +
+                "'no_match_filter':'none'}}}"), "index1", "index2"), arrayContaining("index1", "index2"));
+        // nested clauses are followed, whichever branch each index ends up in
+        String nested = "'query':{'indices2416':{'indices':['index1','index2'],'query':{'indices2416':{'index':'index1','query':{'match_all':{}}," +
+                "'no_match_query':'none'}},'no_match_query':{'indices2416':{'index':'index3','query':{'match_all':{}},'no_match_query':'none'}}}}";
+        assertThat(rewriter.prune(json("{" + nested + "}"), "index1", "index2", "index3"), arrayContaining("index1", "index3"));
+
+        // facets and suggestions may need every index, wherever they appear
+        String facets = "'facets':{'tags':{'terms':{'field':'tag'},'global':true}}";
+        String suggest = "'suggest':{'text':{'text':'a','term':{'field':'text'}}}";
+        assertThat(rewriter.prune(json("{" + query + "," + facets + "}"), "index1", "index2"), arrayContaining("index1", "index2"));
+        assertThat(rewriter.prune(json("{" + facets + "," + query + "}"), "index1", "index2"), arrayContaining("index1", "index2"));
+        assertThat(rewriter.prune(json("{" + query + "," + suggest + "}"), "index1", "index2"), arrayContaining("index1", "index2"));
+        assertThat(rewriter.prune(json("{'facets':{'tags':{'terms':{'field':'tag'}}}," + query + "}"), "index1", "index2"), arrayContaining("index1", "index2"));
+    }
+
+    @Test
+    public void testRewriteBool() throws Exception {
+        String none = "{'indices2416':{'indices':['index1'],'query':{'term':{'text':'a'}},'no_match_query':'none'}}";
+        String all = "{'indices2416':{'indices':['index1'],'query':{'term':{'text':'a'}},'no_match_query':'all'}}";
+        String noneFilter = "{'indices2416':{'indices':['index1'],'filter':{'term':{'text':'a'}},'no_match_filter':'none'}}";
+        String allFilter = "{'indices2416':{'indices':['index1'],'filter':{'term':{'text':'a'}}}}";
+
+        // a must clause matching nothing, or a must_not one matching everything, rules out the whole bool
+        assertThat(rewrite("{'query':{'bool':{'must':[" + none + ",{'term':{'tag':'b'}}]}}}", "index2"),
+                equalTo(json("{'query':{'bool':{'must_not':{'match_all':{}}}}}").toUtf8()));
+        assertThat(rewrite("{'filter':{'bool':{'must_not':" + allFilter + ",'must':{'term':{'tag':'b'}}}}}", "index2"),
+                equalTo(json("{'filter':{'not':{'match_all':{}}}}").toUtf8()));
+
+        // must_not clauses matching nothing are dropped, query clauses matching everything still score
+        assertThat(rewrite("{'query':{'bool':{'must':[" + all + ",{'term':{'tag':'b'}}],'must_not':" + none + ",'boost':2}}}", "index2"),
+                equalTo(json("{'query':{'bool':{'must':[{'match_all':{}},{'term':{'tag':'b'}}],'boost':2}}}").toUtf8()));
+
+        // filter clauses not changing the outcome are dropped, the bool is gone when none is left
+        assertThat(rewrite("{'filter':{'bool':{'must':[" + allFilter + ",{'term':{'tag':'b'}}],'should':[" + noneFilter + ",{'term':{'tag':'c'}}]}}}", "index2"),
+                equalTo(json("{'filter':{'bool':{'must':[{'term':{'tag':'b'}}],'should':[{'term':{'tag':'c'}}]}}}").toUtf8()));
+        assertThat(rewrite("{'filter':{'bool':{'must':" + allFilter + ",'must_not':" + noneFilter + "}}}", "index2"),
+                equalTo(json("{'filter':{'match_all':{}}}").toUtf8()));
+        assertThat(rewrite("{'filter':{'bool':{'must':" + allFilter + ",'must_not':" + noneFilter + "}}}", "index1"),
+                equalTo(json("{'filter':{'bool':{'must':[{'term':{'text':'a'}}],'must_not':[{'term':{'text':'a'}}]}}}").toUtf8()));
+
+        // bools outside of the queries and filters are left alone
+        String source = "{'query':{'match_all':{}},'script_fields':{'field':{'script':'doc','params':{'bool':{'must':" + none + "}}}}}";
+        assertThat(rewrite(source, "index2"), equalTo(json(source).toUtf8()));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.index.query;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermFilter;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DisjunctionMaxQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.test.ElasticsearchTestCase;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ *
+ */
+public class Indices2416TemplateCacheTests extends ElasticsearchTestCase {
+
+    private static final String CLAUSE = "indices2416:query";
+
+    /**
+     * Returns the given JSON, written with single quotes for readability.
+     */
+    private static BytesReference json(String json) {
+        return new BytesArray(json.replace('\'', '"'));
+    }
+
+    private static Indices2416TemplateCache.Template template() {
+        return new Indices2416TemplateCache.Template(new TermQuery(new Term("text", "a")), ImmutableMap.<String, Filter>of());
+    }
+
+    private static boolean cacheable(String source) throws Exception {
+        return Indices2416TemplateCache.cacheable(json(source));
+    }
+
+    @Test
+    public void testCacheable() throws Exception {
+        assertTrue(cacheable("{'indices':['index1'],'query':{'term':{'text':'a'}}}"));
+        // field names are matched as a whole, and only values are looked at for date math
+        assertTrue(cacheable("{'indices':['index1'],'query':{'range':{'snowfall':{'gte':10}}}}"));
+        assertTrue(cacheable("{'indices':['index1'],'query':{'term':{'now':'somewhere'}}}"));
+        assertTrue(cacheable("{'indices':['index1'],'query':{'term':{'description':'script'}}}"));
+        assertTrue(cacheable("{'indices':['index1'],'filter':{'terms':{'path':['a','b'],'execution':'bool'}}}"));
+        assertTrue(cacheable("{'indices':['index1'],'filter':{'geo_shape':{'location':{'shape':{'type':'point','coordinates':[1,2]}}}}}"));
+
+        assertFalse(cacheable("{'indices':['index1'],'query':{'range':{'date':{'lte':'now-1d/d'}}}}"));
+        assertFalse(cacheable("{'indices':[{'prefix':'logs-','from':'now-7d'}],'query':{'match_all':{}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'range':{'date':{'gte':'2013-01-01||+1d'}}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'query_string':{'query':'timestamp:[now-1d TO now]'}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'field':{'timestamp':'[now-1d TO *]'}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'term':{'text':'nowhere'}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'filter':{'script':{'script':'true'}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'has_child':{'type':'child','query':{'match_all':{}}}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'filtered':{'query':{'match_all':{}},'filter':{'match_all':{}},'strategy':'leap_frog'}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'query':{'match_all':{}},'profile':true}"));
+        // terms lookups and indexed shapes depend on other documents
+        assertFalse(cacheable("{'indices':['index1'],'filter':{'bool':{'must':[{'term':{'a':'b'}},{'terms':{'user':{'index':'users','type':'user','id':'2','path':'followers'}}}]}}}"));
+        assertFalse(cacheable("{'indices':['index1'],'filter':{'geo_shape':{'location':{'indexed_shape':{'id':'1','type':'shapes'}}}}}"));
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        Indices2416TemplateCache cache = new Indices2416TemplateCache(ImmutableSettings.settingsBuilder()
+                .put(Indices2416TemplateCache.SIZE, 2).build(), null);
+        assertTrue(cache.enabled());
+        String source = "{'indices':['index1'],'query':{'term':{'text':'a'}}}";
+        Indices2416TemplateCache.Template template = template();
+        cache.put("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json(source)), template);
+
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json(source))), sameInstance(template));
+        assertThat(cache.get("index2", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json(source))), nullValue());
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key("indices2416:filter", 1, null, json(source))), nullValue());
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 2, null, json(source))), nullValue());
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, new String[]{"type1"}, json(source))), nullValue());
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json(source.replace("'a'", "'b'")))), nullValue());
+
+        // the least recently used entry goes first
+        cache.put("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json("{'other':1}")), template());
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json(source))), sameInstance(template));
+        cache.put("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json("{'other':2}")), template());
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json(source))), sameInstance(template));
+        assertThat(cache.get("index1", new Indices2416TemplateCache.Key(CLAUSE, 1, null, json("{'other':1}"))), nullValue());
+    }
+
+    @Test
+    public void testMetaDataChangesInvalidateEntries() throws Exception {
+        Indices2416TemplateCache cache = new Indices2416TemplateCache(ImmutableSettings.settingsBuilder()
+                .put(Indices2416TemplateCache.SIZE, 10).build(), null);
+        Indices2416TemplateCache.Key key = new Indices2416TemplateCache.Key(CLAUSE, 1, null, json("{'query':{'match_all':{}}}"));
+        Indices2416TemplateCache.Template template = template();
+        cache.put("index1", key, template);
+
+        ClusterState state = ClusterState.builder().metaData(MetaData.builder().version(1)).build();
+        ClusterState routingOnly = ClusterState.builder(state).version(state.version() + 1).build();
+        cache.clusterChanged(new ClusterChangedEvent("test", routingOnly, state));
+        assertThat(cache.get("index1", key), sameInstance(template));
+
+        ClusterState metaDataChanged = ClusterState.builder(routingOnly).metaData(MetaData.builder(routingOnly.metaData()).version(2)).build();
+        cache.clusterChanged(new ClusterChangedEvent("test", metaDataChanged, routingOnly));
+        assertThat(cache.get("index1", key), nullValue());
+    }
+
+    @Test
+    public void testCopiedQueriesDoNotShareBoosts() throws Exception {
+        TermQuery term = new TermQuery(new Term("text", "a"));
+        XFilteredQuery filtered = new XFilteredQuery(new TermQuery(new Term("text", "b")), new TermFilter(new Term("tag", "c")),
+                XFilteredQuery.CUSTOM_FILTER_STRATEGY);
+        DisjunctionMaxQuery disjunctionMax = new DisjunctionMaxQuery(0.5f);
+        disjunctionMax.add(new TermQuery(new Term("text", "d")));
+        BooleanQuery query = new BooleanQuery();
+        query.add(term, BooleanClause.Occur.MUST);
+        query.add(filtered, BooleanClause.Occur.SHOULD);
+        query.add(disjunctionMax, BooleanClause.Occur.SHOULD);
+        query.setBoost(2f);
+        String original = query.toString();
+
+        Query copy = Indices2416QueryParser.copyOf(query);
+        assertThat(copy, equalTo((Query) query));
+        assertThat(copy, not(sameInstance((Query) query)));
+
+        // change the boost of the copy and of everything it holds
+        copy.setBoost(3f);
+        for (BooleanClause clause : ((BooleanQuery) copy).clauses()) {
+            clause.getQuery().setBoost(4f);
+        }
+        ((XFilteredQuery) ((BooleanQuery) copy).clauses().get(1).getQuery()).getQuery().setBoost(5f);
+        for (Query disjunct : (DisjunctionMaxQuery) ((BooleanQuery) copy).clauses().get(2).getQuery()) {
+            disjunct.setBoost(6f);
+        }
+        ((BooleanQuery) copy).add(new TermQuery(new Term("text", "e")), BooleanClause.Occur.SHOULD);
+        assertThat(query.toString(), equalTo(original));
+    }
+}
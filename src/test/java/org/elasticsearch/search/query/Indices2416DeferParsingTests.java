@@ -0,0 +1,129 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.search.query;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.Indices2416QueryParser;
+import org.elasticsearch.test.ElasticsearchIntegrationTest;
+import org.junit.Test;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.matchers.JUnitMatchers.either;
+
+/**
+ * Checks the buffering of the branches appearing before the indices, the builders always writing the indices first.
+ */
+@ElasticsearchIntegrationTest.ClusterScope(scope = ElasticsearchIntegrationTest.Scope.SUITE)
+public class Indices2416DeferParsingTests extends ElasticsearchIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return ImmutableSettings.settingsBuilder().put(super.nodeSettings(nodeOrdinal))
+                .put(Indices2416QueryParser.DEFER_PARSING, true).build();
+    }
+
+    @Test // https://github.com/elasticsearch/elasticsearch/issues/2416
+    public void testIndices2416DeferParsing() throws Exception {
+        createIndex("simple");
+        client().admin().indices().prepareCreate("related")
+                .addMapping("child", jsonBuilder().startObject().startObject("child").startObject("_parent").field("type", "parent")
+                        .endObject().endObject().endObject())
+                .get();
+        ensureGreen();
+
+        client().prepareIndex("simple", "lone").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("related", "parent").setId("2").setSource("text", "parent").get();
+        client().prepareIndex("related", "child").setId("3").setParent("2").setSource("text", "value2").get();
+        refresh();
+
+        //the indices come last, has_child only gets parsed for "related" index whether it is the branch or the no match branch
+        String hasChild = "{\"has_child\": {\"type\": \"child\", \"query\": {\"match\": {\"text\": \"value2\"}}}}";
+        String match = "{\"match\": {\"text\": \"value1\"}}";
+        String[] queries = {
+                "{\"indices2416\": {\"query\": " + hasChild + ", \"no_match_query\": " + match + ", \"indices\": [\"related\"]}}",
+                "{\"indices2416\": {\"query\": " + match + ", \"no_match_query\": " + hasChild + ", \"indices\": [\"simple\"]}}"
+        };
+        for (String query : queries) {
+            SearchResponse response = client().prepareSearch("related", "simple").setQuery(query).get();
+            assertHitCount(response, 2l);
+            assertThat(response.getHits().getAt(0).getId(), either(equalTo("1")).or(equalTo("2")));
+            assertThat(response.getHits().getAt(1).getId(), either(equalTo("1")).or(equalTo("2")));
+        }
+
+        hasChild = "{\"has_child\": {\"type\": \"child\", \"filter\": {\"term\": {\"text\": \"value2\"}}}}";
+        String term = "{\"term\": {\"text\": \"value1\"}}";
+        String[] filters = {
+                "{\"indices2416\": {\"filter\": " + hasChild + ", \"no_match_filter\": " + term + ", \"indices\": [\"related\"]}}",
+                "{\"indices2416\": {\"filter\": " + term + ", \"no_match_filter\": " + hasChild + ", \"index\": \"simple\"}}"
+        };
+        for (String filter : filters) {
+            SearchResponse response = client().prepareSearch("related", "simple").setFilter(filter).get();
+            assertHitCount(response, 2l);
+            assertThat(response.getHits().getAt(0).getId(), either(equalTo("1")).or(equalTo("2")));
+            assertThat(response.getHits().getAt(1).getId(), either(equalTo("1")).or(equalTo("2")));
+        }
+    }
+
+    @Test
+    public void testIndices2416FilterCacheBufferedBranch() throws Exception {
+        client().admin().indices().prepareCreate("cached")
+                .addMapping("type1", jsonBuilder().startObject().startObject("type1").startObject("properties")
+                        .startObject("value").field("type", "string").endObject()
+                        .startObject("date").field("type", "date").endObject()
+                        .endObject().endObject().endObject())
+                .addMapping("type2", jsonBuilder().startObject().startObject("type2").startObject("properties")
+                        .startObject("value").field("type", "long").endObject()
+                        .endObject().endObject().endObject())
+                .get();
+        ensureGreen();
+
+        long future = System.currentTimeMillis() + 3000;
+        client().prepareIndex("cached", "type1").setId("1").setSource("value", "10").get();
+        client().prepareIndex("cached", "type2").setId("2").setSource("value", 10).get();
+        client().prepareIndex("cached", "type1").setId("3").setSource("date", future).get();
+        refresh();
+
+        //the same buffered branch parses to a different filter depending on the types of the request
+        String byValue = "{\"indices2416\": {\"filter\": {\"term\": {\"value\": \"10\"}}, \"indices\": [\"cached\"], " +
+                "\"no_match_filter\": \"none\", \"_cache\": true}}";
+        SearchResponse response = client().prepareSearch("cached").setTypes("type1").setFilter(byValue).get();
+        assertHitCount(response, 1l);
+        assertThat(response.getHits().getAt(0).getId(), equalTo("1"));
+        response = client().prepareSearch("cached").setTypes("type2").setFilter(byValue).get();
+        assertHitCount(response, 1l);
+        assertThat(response.getHits().getAt(0).getId(), equalTo("2"));
+
+        //and to a different filter depending on when now is
+        String untilNow = "{\"indices2416\": {\"filter\": {\"range\": {\"date\": {\"lte\": \"now\"}}}, \"indices\": [\"cached\"], " +
+                "\"no_match_filter\": \"none\", \"_cache\": true}}";
+        response = client().prepareSearch("cached").setTypes("type1").setFilter(untilNow).get();
+        assertHitCount(response, 0l);
+        while (System.currentTimeMillis() <= future) {
+            Thread.sleep(100);
+        }
+        response = client().prepareSearch("cached").setTypes("type1").setFilter(untilNow).get();
+        assertHitCount(response, 1l);
+        assertThat(response.getHits().getAt(0).getId(), equalTo("3"));
+    }
+}
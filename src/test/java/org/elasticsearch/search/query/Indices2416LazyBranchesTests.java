@@ -0,0 +1,142 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.query;
+
+import org.elasticsearch.action.search.SearchPhaseExecutionException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.Indices2416QueryParser;
+import org.elasticsearch.test.ElasticsearchIntegrationTest;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * Checks that building the chosen branches lazily finds the same documents as building them while parsing, which
+ * ignores a branch parsing to nothing, and that only clauses making the whole query get built lazily.
+ */
+@ElasticsearchIntegrationTest.ClusterScope(scope = ElasticsearchIntegrationTest.Scope.SUITE)
+public class Indices2416LazyBranchesTests extends ElasticsearchIntegrationTest {
+
+    private static final String NOTHING = "{\"bool\":{\"must_not\":{\"match_all\":{}}}}";
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return ImmutableSettings.settingsBuilder().put(super.nodeSettings(nodeOrdinal))
+                .put(Indices2416QueryParser.LAZY_BRANCHES, true).build();
+    }
+
+    @Test
+    public void testLazyBranchesMatchEagerOnes() throws Exception {
+        createIndex("index1", "index2");
+        ensureGreen();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("index1", "type1").setId("2").setSource("text", "value2").get();
+        client().prepareIndex("index2", "type2").setId("3").setSource("text", "value1").get();
+        client().prepareIndex("index2", "type2").setId("4").setSource("text", "value2").get();
+        refresh();
+
+        // each branch along with what it stands for when parsed eagerly, null if it parses to nothing
+        String[][] branches = {
+                {"{\"match\":{\"text\":\"value1\"}}", "{\"match\":{\"text\":\"value1\"}}"},
+                {"{\"match\":{\"text\":\"!?\"}}", "{\"match\":{\"text\":\"!?\"}}"}, // no token, matches no document
+                {"{\"filtered\":{\"query\":{\"bool\":{}}}}", null},
+                {"{\"bool\":{}}", null}
+        };
+        String[][] noMatchBranches = {
+                {"\"none\"", NOTHING},
+                {"\"all\"", "{\"match_all\":{}}"},
+                {"{\"match\":{\"text\":\"value2\"}}", "{\"match\":{\"text\":\"value2\"}}"},
+                {"{\"bool\":{}}", null}
+        };
+        // each enclosing query along with what it stands for when the clause within parses to nothing
+        String[][] enclosings = {
+                {"%s", NOTHING},
+                {"{\"bool\":{\"should\":[%s,{\"match\":{\"text\":\"value2\"}}]}}", "{\"bool\":{\"should\":[{\"match\":{\"text\":\"value2\"}}]}}"},
+                {"{\"bool\":{\"must\":{\"match_all\":{}},\"must_not\":%s}}", "{\"bool\":{\"must\":{\"match_all\":{}}}}"},
+                {"{\"bool\":{\"must\":[%s,{\"match_all\":{}}]}}", "{\"bool\":{\"must\":{\"match_all\":{}}}}"},
+                {"{\"filtered\":{\"query\":%s,\"filter\":{\"match_all\":{}}}}", NOTHING}
+        };
+        for (String[] branch : branches) {
+            for (String[] noMatchBranch : noMatchBranches) {
+                for (String[] enclosing : enclosings) {
+                    String clause = "{\"" + Indices2416QueryParser.NAME + "\":{\"indices\":[\"index1\"],\"query\":" + branch[0] +
+                            ",\"no_match_query\":" + noMatchBranch[0] + "}}";
+                    String query = String.format(Locale.ROOT, enclosing[0], clause);
+                    long expected = eager("index1", enclosing, branch[1]) + eager("index2", enclosing, noMatchBranch[1]);
+                    long hits = search(query, "index1", "index2").getHits().totalHits();
+                    assertThat(query, hits, equalTo(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyTopLevelClausesAreLazy() throws Exception {
+        createIndex("index1");
+        ensureGreen();
+
+        // the branch fails to parse while the request gets parsed, or in the query phase once lazily built
+        String clause = "{\"" + Indices2416QueryParser.NAME + "\":{\"indices\":[\"index1\"],\"query\":{\"unknown\":{}},\"no_match_query\":\"none\"}}";
+        assertFailure(clause, "QueryPhaseExecutionException");
+        assertFailure("{\"bool\":{\"must\":" + clause + "}}", "SearchParseException");
+        assertFailure("{\"filtered\":{\"query\":" + clause + "}}", "SearchParseException");
+    }
+
+    private void assertFailure(String query, String exception) {
+        ShardSearchFailure[] failures;
+        try {
+            failures = search(query, "index1").getShardFailures();
+        } catch (SearchPhaseExecutionException e) {
+            failures = e.shardFailures();
+        }
+        assertThat(failures.length, greaterThan(0));
+        for (ShardSearchFailure failure : failures) {
+            assertThat(failure.reason(), startsWith(exception));
+            assertThat(failure.reason(), containsString("QueryParsingException"));
+        }
+    }
+
+    /**
+     * Searches with the query written in the source, rather than as a separate binary query.
+     */
+    private SearchResponse search(String query, String... indices) {
+        return client().prepareSearch(indices).setSource("{\"query\":" + query + "}").get();
+    }
+
+    /**
+     * Returns the number of documents of the given index the enclosing query finds when the given branch is parsed
+     * eagerly in place of the clause.
+     */
+    private long eager(String index, String[] enclosing, @Nullable String branch) {
+        String query = branch != null ? String.format(Locale.ROOT, enclosing[0], branch) : enclosing[1];
+        return search(query, index).getHits().totalHits();
+    }
+}
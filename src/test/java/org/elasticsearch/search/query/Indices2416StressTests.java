@@ -0,0 +1,202 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.search.query;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.query.Indices2416QueryBuilder;
+import org.elasticsearch.test.ElasticsearchIntegrationTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Runs concurrent <tt>indices2416</tt> searches across many indices while aliases are moved and indices are created
+ * and deleted, checking the results and reporting throughput and latency percentiles.
+ * <p/>
+ * The load can be tuned with the <tt>tests.indices2416.stress.indices</tt>, <tt>tests.indices2416.stress.threads</tt>
+ * and <tt>tests.indices2416.stress.seconds</tt> system properties.
+ */
+@ElasticsearchIntegrationTest.ClusterScope(scope = ElasticsearchIntegrationTest.Scope.TEST)
+public class Indices2416StressTests extends ElasticsearchIntegrationTest {
+
+    private static final int INDICES = Integer.getInteger("tests.indices2416.stress.indices", 100);
+
+    private static final int THREADS = Integer.getInteger("tests.indices2416.stress.threads", 4);
+
+    private static final int SECONDS = Integer.getInteger("tests.indices2416.stress.seconds", 10);
+
+    @Test
+    public void testSearchesDuringAliasAndIndexChurn() throws Exception {
+        for (int i = 0; i < INDICES; i++) {
+            client().admin().indices().prepareCreate(index(i))
+                    .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0))
+                    .get();
+        }
+        ensureGreen();
+        for (int i = 0; i < INDICES; i++) {
+            client().prepareIndex(index(i), "type").setId(Integer.toString(i)).setSource("index", index(i)).get();
+        }
+        client().admin().indices().prepareAliases().addAlias(index(0), "current").get();
+        refresh();
+
+        // "stress-0*" keeps matching the same indices whatever the churn
+        int expectedFixedHits = 0;
+        for (int i = 0; i < INDICES; i++) {
+            if (index(i).startsWith("stress-0")) {
+                expectedFixedHits++;
+            }
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(THREADS + 1);
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        final AtomicLong wrongFixedHits = new AtomicLong();
+        final AtomicLong unstableAliasHits = new AtomicLong();
+        final AtomicLong partialRounds = new AtomicLong();
+        final AtomicLong rollovers = new AtomicLong();
+        final List<long[]> latencies = new CopyOnWriteArrayList<long[]>();
+
+        final int fixedHits = expectedFixedHits;
+        for (int t = 0; t < THREADS; t++) {
+            new Thread("indices2416-stress-search-" + t) {
+                @Override
+                public void run() {
+                    long[] threadLatencies = new long[1024];
+                    int count = 0;
+                    try {
+                        while (!stop.get()) {
+                            long start = System.nanoTime();
+                            SearchResponse fixed = client().prepareSearch("stress-*")
+                                    .setQuery(new Indices2416QueryBuilder(matchAllQuery(), "stress-0*").noMatchQuery("none"))
+                                    .setSize(0).get();
+                            SearchResponse alias = client().prepareSearch("stress-*")
+                                    .setQuery(new Indices2416QueryBuilder(matchAllQuery(), "current").noMatchQuery("none"))
+                                    .setSize(0).get();
+                            long took = System.nanoTime() - start;
+                            if (count == threadLatencies.length) {
+                                threadLatencies = Arrays.copyOf(threadLatencies, count << 1);
+                            }
+                            threadLatencies[count++] = took;
+                            if (fixed.getSuccessfulShards() != fixed.getTotalShards() || alias.getSuccessfulShards() != alias.getTotalShards()) {
+                                // the search thread pool rejects shard requests once its queue is full, hits are then missing
+                                partialRounds.incrementAndGet();
+                                continue;
+                            }
+                            if (fixed.getHits().totalHits() != fixedHits) {
+                                wrongFixedHits.incrementAndGet();
+                            }
+                            if (alias.getHits().totalHits() != 1) {
+                                // shards may apply the alias move at slightly different times
+                                unstableAliasHits.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    } finally {
+                        latencies.add(Arrays.copyOf(threadLatencies, count));
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        new Thread("indices2416-stress-churn") {
+            @Override
+            public void run() {
+                try {
+                    int current = 0;
+                    int churn = 0;
+                    while (!stop.get()) {
+                        int next = (current + 1) % INDICES;
+                        client().admin().indices().prepareAliases()
+                                .removeAlias(index(current), "current").addAlias(index(next), "current").get();
+                        current = next;
+                        rollovers.incrementAndGet();
+
+                        String created = "churn-" + churn++;
+                        client().admin().indices().prepareCreate(created)
+                                .setSettings(ImmutableSettings.settingsBuilder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0))
+                                .get();
+                        if (churn > 2) {
+                            client().admin().indices().prepareDelete("churn-" + (churn - 3)).get();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }.start();
+
+        long startTime = System.nanoTime();
+        Thread.sleep(SECONDS * 1000l);
+        stop.set(true);
+        done.await();
+        long elapsed = System.nanoTime() - startTime;
+
+        List<Long> all = new ArrayList<Long>();
+        for (long[] threadLatencies : latencies) {
+            for (long latency : threadLatencies) {
+                all.add(latency);
+            }
+        }
+        long[] sorted = new long[all.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = all.get(i);
+        }
+        Arrays.sort(sorted);
+
+        logger.info("{} rounds of 2 searches over {} indices in {}s with {} alias rollovers, {} rounds/s, latency p50 {}ms p99 {}ms p999 {}ms max {}ms, {} rounds with unstable alias hits, {} rounds with rejected shards",
+                sorted.length, INDICES, SECONDS, rollovers.get(), String.format(Locale.ROOT, "%.1f", sorted.length / (elapsed / 1e9)),
+                millis(sorted, 0.5), millis(sorted, 0.99), millis(sorted, 0.999), millis(sorted, 1), unstableAliasHits.get(), partialRounds.get());
+
+        assertThat(failures, empty());
+        assertThat(sorted.length, greaterThan(0));
+        assertThat(partialRounds.get(), lessThan((long) sorted.length));
+        assertThat(wrongFixedHits.get(), equalTo(0l));
+    }
+
+    private static String index(int i) {
+        return String.format(Locale.ROOT, "stress-%03d", i);
+    }
+
+    private static String millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        int i = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+        return String.format(Locale.ROOT, "%.2f", sorted[Math.max(0, i)] / 1e6);
+    }
+}
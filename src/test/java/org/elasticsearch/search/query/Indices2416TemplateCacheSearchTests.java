@@ -0,0 +1,124 @@
+/*
+ * Licensed to ElasticSearch and Shay Banon under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. ElasticSearch licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.elasticsearch.search.query;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.Indices2416TemplateCache;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.test.ElasticsearchIntegrationTest;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.index.query.FilterBuilders.termFilter;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+import static org.hamcrest.CoreMatchers.equalTo;
+
+/**
+ * Checks that clauses taken from the template cache find the same documents, with the same scores, as parsed ones.
+ */
+@ElasticsearchIntegrationTest.ClusterScope(scope = ElasticsearchIntegrationTest.Scope.SUITE)
+public class Indices2416TemplateCacheSearchTests extends ElasticsearchIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return ImmutableSettings.settingsBuilder().put(super.nodeSettings(nodeOrdinal))
+                .put(Indices2416TemplateCache.SIZE, 100).build();
+    }
+
+    @Test
+    public void testCachedQueriesKeepTheirBoost() throws Exception {
+        createIndex("index1");
+        ensureGreen();
+        client().admin().indices().prepareAliases().addAlias("index1", "alias1", termFilter("tag", "red")).get();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1", "tag", "red").get();
+        client().prepareIndex("index1", "type1").setId("2").setSource("text", "value1 value2", "tag", "red").get();
+        client().prepareIndex("index1", "type1").setId("3").setSource("text", "value2", "tag", "blue").get();
+        refresh();
+
+        // the clause parses to a filtered query, whose boost gets changed by the enclosing boolean query while rewriting it
+        String query = "{\"bool\": {\"should\": [{\"bool\": {\"should\": [{\"indices2416\": {\"indices\": [\"alias1\"], " +
+                "\"query\": {\"match\": {\"text\": \"value1\"}}, \"no_match_query\": \"none\", \"alias_filters\": true}}], \"boost\": 3}}, " +
+                "{\"match\": {\"text\": \"value2\"}}]}}";
+        Map<String, Float> scores = null;
+        for (int i = 0; i < 3; i++) {
+            SearchResponse response = client().prepareSearch("index1").setQuery(query).get();
+            assertHitCount(response, 3l);
+            Map<String, Float> current = new HashMap<String, Float>();
+            for (SearchHit hit : response.getHits()) {
+                current.put(hit.getId(), hit.getScore());
+            }
+            if (scores == null) {
+                scores = current;
+            } else {
+                assertThat(current, equalTo(scores));
+            }
+        }
+    }
+
+    @Test
+    public void testMetaDataChangesInvalidateCachedClauses() throws Exception {
+        createIndex("index1", "index2");
+        ensureGreen();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("index2", "type1").setId("2").setSource("text", "value1").get();
+        refresh();
+
+        String query = "{\"indices2416\": {\"indices\": [\"alias2\"], \"query\": {\"match\": {\"text\": \"value1\"}}, \"no_match_query\": \"none\"}}";
+        for (int i = 0; i < 2; i++) {
+            assertHitCount(client().prepareSearch("index1", "index2").setQuery(query).get(), 0l);
+        }
+
+        client().admin().indices().prepareAliases().addAlias("index2", "alias2").get();
+        for (int i = 0; i < 2; i++) {
+            SearchResponse response = client().prepareSearch("index1", "index2").setQuery(query).get();
+            assertHitCount(response, 1l);
+            assertThat(response.getHits().getAt(0).getId(), equalTo("2"));
+        }
+    }
+
+    @Test
+    public void testClausesUsingDateMathAreNotCached() throws Exception {
+        client().admin().indices().prepareCreate("index1")
+                .addMapping("type1", jsonBuilder().startObject().startObject("type1").startObject("properties")
+                        .startObject("date").field("type", "date").endObject()
+                        .endObject().endObject().endObject())
+                .get();
+        ensureGreen();
+
+        long future = System.currentTimeMillis() + 2000;
+        client().prepareIndex("index1", "type1").setId("1").setSource("date", future).get();
+        refresh();
+
+        String query = "{\"indices2416\": {\"indices\": [\"index1\"], \"query\": {\"range\": {\"date\": {\"lte\": \"now\"}}}, \"no_match_query\": \"none\"}}";
+        assertHitCount(client().prepareSearch("index1").setQuery(query).get(), 0l);
+        while (System.currentTimeMillis() <= future) {
+            Thread.sleep(100);
+        }
+        assertHitCount(client().prepareSearch("index1").setQuery(query).get(), 1l);
+    }
+}
@@ -24,8 +24,12 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.Indices2416FilterBuilder;
 import org.elasticsearch.index.query.Indices2416QueryBuilder;
+import org.elasticsearch.index.query.Indices2416SwitchQueryBuilder;
+import org.elasticsearch.index.query.Indices2416Profile;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.facet.indices2416.Indices2416ProfileFacet;
+import org.elasticsearch.search.facet.indices2416.Indices2416ProfileFacetBuilder;
 import org.elasticsearch.test.ElasticsearchIntegrationTest;
 import org.junit.Test;
 
@@ -33,6 +37,7 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.index.query.FilterBuilders.hasChildFilter;
 import static org.elasticsearch.index.query.FilterBuilders.termFilter;
 import static org.elasticsearch.index.query.QueryBuilders.hasChildQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
 import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -211,4 +216,167 @@ public class SimpleQueryTests extends ElasticsearchIntegrationTest {
         assertThat(response.getHits().getAt(1).getId(), either(equalTo("1")).or(equalTo("2")));
     }
 
+    @Test
+    public void testIndices2416AliasFilters() throws Exception {
+        createIndex("index1", "index2");
+        ensureGreen();
+        client().admin().indices().prepareAliases().addAlias("index1", "red1", termFilter("tag", "red")).get();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1", "tag", "red").get();
+        client().prepareIndex("index1", "type1").setId("2").setSource("text", "value1", "tag", "blue").get();
+        client().prepareIndex("index2", "type1").setId("3").setSource("text", "value1", "tag", "blue").get();
+        client().prepareIndex("index2", "type1").setId("4").setSource("text", "value2", "tag", "blue").get();
+        refresh();
+
+        //index1 only matches through the filtered alias, whose filter applies to the branch
+        SearchResponse response = client().prepareSearch("index1", "index2")
+                .setQuery(indices2416Query(matchQuery("text", "value1"), "red1", "index2").noMatchQuery("none").aliasFilters(true)).get();
+        assertHitCount(response, 2l);
+        assertThat(response.getHits().getAt(0).getId(), either(equalTo("1")).or(equalTo("3")));
+        assertThat(response.getHits().getAt(1).getId(), either(equalTo("1")).or(equalTo("3")));
+
+        response = client().prepareSearch("index1", "index2")
+                .setFilter(indices2416Filter(termFilter("text", "value1"), "red1").noMatchFilter("none").aliasFilters(true)).get();
+        assertHitCount(response, 1l);
+        assertThat(response.getHits().getAt(0).getId(), equalTo("1"));
+
+        //but not unless asked for, nor when the index is also part of the indices by name
+        response = client().prepareSearch("index1", "index2")
+                .setQuery(indices2416Query(matchQuery("text", "value1"), "red1").noMatchQuery("none")).get();
+        assertHitCount(response, 2l);
+        assertThat(response.getHits().getAt(0).getId(), either(equalTo("1")).or(equalTo("2")));
+        assertThat(response.getHits().getAt(1).getId(), either(equalTo("1")).or(equalTo("2")));
+
+        response = client().prepareSearch("index1", "index2")
+                .setQuery(indices2416Query(matchQuery("text", "value1"), "red1", "index*").noMatchQuery("none").aliasFilters(true)).get();
+        assertHitCount(response, 3l);
+    }
+
+    @Test
+    public void testIndices2416SwitchQuery() throws Exception {
+        createIndex("simple", "other");
+        client().admin().indices().prepareCreate("related")
+                .addMapping("child", jsonBuilder().startObject().startObject("child").startObject("_parent").field("type", "parent")
+                        .endObject().endObject().endObject())
+                .get();
+        ensureGreen();
+
+        client().prepareIndex("simple", "lone").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("related", "parent").setId("2").setSource("text", "parent").get();
+        client().prepareIndex("related", "child").setId("3").setParent("2").setSource("text", "value2").get();
+        client().prepareIndex("other", "lone").setId("4").setSource("text", "value4").get();
+        refresh();
+
+        //has_child only gets parsed for "related" index, the first matching case wins
+        SearchResponse response = client().prepareSearch("related", "simple", "other")
+                .setQuery(new Indices2416SwitchQueryBuilder()
+                        .addCase(hasChildQuery("child", matchQuery("text", "value2")), "related")
+                        .addCase(matchQuery("text", "value1"), "simple")
+                        .addCase(matchQuery("text", "value4"), "simple", "other")
+                        .defaultQuery("none")).get();
+        assertHitCount(response, 3l);
+
+        response = client().prepareSearch("related", "simple", "other")
+                .setQuery(new Indices2416SwitchQueryBuilder()
+                        .addCase(hasChildQuery("child", matchQuery("text", "value2")), "related")
+                        .defaultQuery(matchQuery("text", "value4"))).get();
+        assertHitCount(response, 2l);
+        assertThat(response.getHits().getAt(0).getId(), either(equalTo("2")).or(equalTo("4")));
+        assertThat(response.getHits().getAt(1).getId(), either(equalTo("2")).or(equalTo("4")));
+    }
+
+    @Test
+    public void testIndices2416QueryProfile() throws Exception {
+        createIndex("index1", "index2");
+        ensureGreen();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("index2", "type2").setId("2").setSource("text", "value2").get();
+        refresh();
+
+        SearchResponse response = client().prepareSearch("index1", "index2")
+                .setQuery(indices2416Query(matchQuery("text", "value1"), "index1", "index*")
+                        .noMatchQuery("none").queryName("clause").profile(true))
+                .addFacet(new Indices2416ProfileFacetBuilder("profile")).get();
+        assertHitCount(response, 1l);
+
+        Indices2416ProfileFacet facet = response.getFacets().facet("profile");
+        assertThat(facet.getShards().size(), equalTo(response.getTotalShards()));
+        for (Indices2416ProfileFacet.Shard shard : facet) {
+            assertThat(shard.getClauses().size(), equalTo(1));
+            Indices2416Profile.Clause clause = shard.getClauses().get(0);
+            assertThat(clause.getKind(), equalTo("query"));
+            assertThat(clause.getName(), equalTo("clause"));
+            assertThat(clause.getMatched(), equalTo(shard.getIndex().equals("index1") ? "index1" : "index*"));
+            assertThat(clause.getBranch(), equalTo("query"));
+            assertThat(clause.isSkipped(), equalTo(false));
+        }
+
+        //clauses not asking for it are not profiled
+        response = client().prepareSearch("index1", "index2")
+                .setFilter(indices2416Filter(termFilter("text", "value2"), "index2").noMatchFilter("none"))
+                .addFacet(new Indices2416ProfileFacetBuilder("profile")).get();
+        assertHitCount(response, 1l);
+        facet = response.getFacets().facet("profile");
+        for (Indices2416ProfileFacet.Shard shard : facet) {
+            assertThat(shard.getClauses().isEmpty(), equalTo(true));
+        }
+    }
+
+    @Test
+    public void testIndices2416QueryProfileOptionLast() throws Exception {
+        createIndex("index1", "index2");
+        ensureGreen();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("index2", "type2").setId("2").setSource("text", "value2").get();
+        refresh();
+
+        //the clause nested within the branch reads its own indices before the profile option shows up
+        SearchResponse response = client().prepareSearch("index1", "index2")
+                .setQuery("{\"indices2416\":{\"indices\":[\"index1\"],"
+                        + "\"query\":{\"bool\":{\"must\":{\"indices2416\":{\"index\":\"index2\",\"query\":{\"match_all\":{}},\"no_match_query\":\"all\"}}}},"
+                        + "\"no_match_query\":\"none\",\"profile\":true}}")
+                .addFacet(new Indices2416ProfileFacetBuilder("profile"))
+                .addFacet(new Indices2416ProfileFacetBuilder("again")).get();
+        assertHitCount(response, 1l);
+
+        for (String facetName : new String[]{"profile", "again"}) {
+            Indices2416ProfileFacet facet = response.getFacets().facet(facetName);
+            assertThat(facet.getShards().size(), equalTo(response.getTotalShards()));
+            for (Indices2416ProfileFacet.Shard shard : facet) {
+                assertThat(shard.getClauses().size(), equalTo(1));
+                Indices2416Profile.Clause clause = shard.getClauses().get(0);
+                boolean matches = shard.getIndex().equals("index1");
+                assertThat(clause.getMatched(), equalTo(matches ? "index1" : null));
+                assertThat(clause.getBranch(), equalTo(matches ? "query" : "no_match_query"));
+                assertThat(clause.isFolded(), equalTo(false));
+                assertThat(clause.getResolveNanos(), greaterThan(0l));
+            }
+        }
+    }
+
+    @Test
+    public void testIndices2416NestedAllIndices() throws Exception {
+        createIndex("index1", "index2");
+        ensureGreen();
+
+        client().prepareIndex("index1", "type1").setId("1").setSource("text", "value1").get();
+        client().prepareIndex("index2", "type2").setId("2").setSource("text", "value2").get();
+        refresh();
+
+        //a nested clause listing no index, or _all alone, stands for all the indices whatever the enclosing one matched
+        for (String[] all : new String[][]{{}, {"_all"}}) {
+            SearchResponse response = client().prepareSearch("index1", "index2")
+                    .setQuery(indices2416Query(matchQuery("text", "value1"), "index1")
+                            .noMatchQuery(indices2416Query(matchQuery("text", "value2"), all).noMatchQuery("none"))).get();
+            assertHitCount(response, 2l);
+
+            response = client().prepareSearch("index1", "index2")
+                    .setQuery(indices2416Query(indices2416Query(matchAllQuery(), "index2").noMatchQuery("none"), all)
+                            .noMatchQuery("none")).get();
+            assertHitCount(response, 1l);
+            assertThat(response.getHits().getAt(0).getId(), equalTo("2"));
+        }
+    }
 }